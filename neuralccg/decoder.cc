@@ -1,6 +1,8 @@
 #include "decoder.h"
 
+#include <climits>
 #include <fcntl.h>
+#include <sstream>
 
 #include "cnn/cnn.h"
 #include "model/rnn-parse-scorer.h"
@@ -13,7 +15,7 @@ using namespace neuralccg;
 namespace pb = google::protobuf;
 
 std::unique_ptr<ParseScorer> scorer;
-std::unique_ptr<Trainer> trainer;
+std::unique_ptr<Optimizer> optimizer;
 std::unique_ptr<ScorerConfig> scorer_config;
 
 template<typename Message>
@@ -47,6 +49,7 @@ void InitializeCNN(const RunConfig &run_config) {
 }
 
 void InitializeScorer(const ScorerConfig &scorer_config) {
+  optimizer.reset();
   scorer.reset();
   ps->free();
   scorer.reset(new RnnParseScorer(scorer_config));
@@ -60,14 +63,7 @@ void InitializeScorer(const ScorerConfig &scorer_config) {
 void InitializeTraining(const TrainConfig &train_config) {
   scorer->InitializeTraining(train_config);
   if (!train_config.update_method().empty()) {
-    if (train_config.update_method() == "adam") {
-      trainer.reset(new AdamTrainer(&scorer->model));
-    }
-    else if (train_config.update_method() == "momentum") {
-      trainer.reset(new MomentumSGDTrainer(&scorer->model));
-    } else {
-      throw std::runtime_error("Unknown update method: " + train_config.update_method());
-    }
+    optimizer.reset(new Optimizer(&scorer->model, train_config, scorer->SparseParameters()));
   }
 }
 
@@ -160,5 +156,44 @@ JNIEXPORT void JNICALL Java_edu_uw_neuralccg_model_TreeFactoredModel_applyUpdate
 (JNIEnv *env, jclass clazz, jbyteArray buffer) {
   UpdateProto update;
   jbytes_to_message(buffer, &update, env);
-  scorer->ApplyUpdate(update, trainer.get());
+  scorer->ApplyUpdate(update, optimizer.get());
+}
+
+JNIEXPORT jlong JNICALL Java_edu_uw_neuralccg_model_TreeFactoredModel_getNativeMemoryUsage
+(JNIEnv *env, jclass clazz) {
+  return fxs->used + dEdfs->used + ps->used;
+}
+
+JNIEXPORT void JNICALL Java_edu_uw_neuralccg_model_TreeFactoredModel_saveOptimizerState
+(JNIEnv *env, jclass clazz, jstring state_path) {
+  OptimizerStateProto state;
+  optimizer->Save(&state);
+  std::ostringstream random_engine;
+  random_engine << *rndeng;
+  state.set_random_engine(random_engine.str());
+  const char* state_path_cstr = env->GetStringUTFChars(state_path, nullptr);
+  std::fstream out_stream(state_path_cstr, std::ios::out | std::ios::trunc | std::ios::binary);
+  if(!state.SerializeToOstream(&out_stream)) {
+    throw std::runtime_error("Failed to encode optimizer protobuffer.");
+  }
+  out_stream.close();
+  env->ReleaseStringUTFChars(state_path, state_path_cstr);
+}
+
+JNIEXPORT void JNICALL Java_edu_uw_neuralccg_model_TreeFactoredModel_loadOptimizerState
+(JNIEnv *env, jclass clazz, jstring state_path) {
+  OptimizerStateProto state;
+  const char* state_path_cstr = env->GetStringUTFChars(state_path, nullptr);
+  int fd = open(state_path_cstr, O_RDONLY);
+  FileInputStream raw_in_stream(fd);
+  CodedInputStream in_stream(&raw_in_stream);
+  in_stream.SetTotalBytesLimit(INT_MAX, INT_MAX);
+  if (!state.ParseFromCodedStream(&in_stream)) {
+    throw std::runtime_error("Failed to parse optimizer protobuffer.");
+  }
+  close(fd);
+  env->ReleaseStringUTFChars(state_path, state_path_cstr);
+  optimizer->Load(state);
+  std::istringstream random_engine(state.random_engine());
+  random_engine >> *rndeng;
 }
@@ -95,6 +95,30 @@ JNIEXPORT jbyteArray JNICALL Java_edu_uw_neuralccg_model_TreeFactoredModel_score
 JNIEXPORT void JNICALL Java_edu_uw_neuralccg_model_TreeFactoredModel_applyUpdate
   (JNIEnv *, jclass, jbyteArray);
 
+/*
+ * Class:     edu_uw_neuralccg_model_TreeFactoredModel
+ * Method:    getNativeMemoryUsage
+ * Signature: ()J
+ */
+JNIEXPORT jlong JNICALL Java_edu_uw_neuralccg_model_TreeFactoredModel_getNativeMemoryUsage
+  (JNIEnv *, jclass);
+
+/*
+ * Class:     edu_uw_neuralccg_model_TreeFactoredModel
+ * Method:    saveOptimizerState
+ * Signature: (Ljava/lang/String;)V
+ */
+JNIEXPORT void JNICALL Java_edu_uw_neuralccg_model_TreeFactoredModel_saveOptimizerState
+  (JNIEnv *, jclass, jstring);
+
+/*
+ * Class:     edu_uw_neuralccg_model_TreeFactoredModel
+ * Method:    loadOptimizerState
+ * Signature: (Ljava/lang/String;)V
+ */
+JNIEXPORT void JNICALL Java_edu_uw_neuralccg_model_TreeFactoredModel_loadOptimizerState
+  (JNIEnv *, jclass, jstring);
+
 #ifdef __cplusplus
 }
 #endif
@@ -0,0 +1,79 @@
+#include "embedding-store.h"
+
+#include <algorithm>
+#include <cstdint>
+#include <cstring>
+#include <iterator>
+#include <numeric>
+#include <stdexcept>
+
+namespace neuralccg {
+
+EmbeddingStore::EmbeddingStore(const std::string &directory) : matrix(directory + "/embeddings.f32") {
+  MappedFile vocabulary(directory + "/vocabulary.bin");
+  const char *position = vocabulary.Data();
+  int32_t size, dimensions;
+  std::memcpy(&size, position, sizeof(int32_t));
+  std::memcpy(&dimensions, position + sizeof(int32_t), sizeof(int32_t));
+  position += 2 * sizeof(int32_t);
+  if (matrix.Size() != sizeof(float) * static_cast<size_t>(size) * dimensions) {
+    throw std::runtime_error("Truncated embedding store: " + directory);
+  }
+  this->dimensions = dimensions;
+  words.reserve(size);
+  for (int32_t i = 0; i < size; ++i) {
+    int32_t length;
+    std::memcpy(&length, position, sizeof(int32_t));
+    position += sizeof(int32_t);
+    words.emplace_back(position, length);
+    position += length;
+  }
+}
+
+OverflowEmbeddings::OverflowEmbeddings(const std::string &directory, unsigned capacity)
+    : store(directory), sorted_rows(store.Words().size()), capacity(capacity), sentence(0) {
+  const std::vector<std::string> &words = store.Words();
+  std::iota(sorted_rows.begin(), sorted_rows.end(), 0);
+  std::stable_sort(sorted_rows.begin(), sorted_rows.end(), [&words](unsigned a, unsigned b) {
+    return words[a] < words[b];
+  });
+}
+
+void OverflowEmbeddings::StartSentence() {
+  ++sentence;
+}
+
+const std::vector<float> *OverflowEmbeddings::Lookup(const std::string &word) {
+  auto cached = cache.find(word);
+  if (cached != cache.end()) {
+    entries.splice(entries.begin(), entries, cached->second);
+    cached->second->sentence = sentence;
+    return &cached->second->values;
+  }
+
+  const std::vector<std::string> &words = store.Words();
+  auto row = std::lower_bound(sorted_rows.begin(), sorted_rows.end(), word, [&words](unsigned a, const std::string &b) {
+    return words[a] < b;
+  });
+  if (row == sorted_rows.end() || words[*row] != word) {
+    return nullptr;
+  }
+  if (entries.size() >= capacity) {
+    // The least recently used row is only in use if every row is.
+    if (entries.empty() || entries.back().sentence == sentence) {
+      return nullptr;
+    }
+    cache.erase(entries.back().word);
+    entries.splice(entries.begin(), entries, std::prev(entries.end()));
+  } else {
+    entries.emplace_front();
+  }
+  Entry &entry = entries.front();
+  entry.word = word;
+  entry.values.assign(store.Row(*row), store.Row(*row) + store.Dimensions());
+  entry.sentence = sentence;
+  cache.emplace(word, entries.begin());
+  return &entry.values;
+}
+
+}
@@ -0,0 +1,66 @@
+#ifndef NEURALCCG_MODEL_EMBEDDING_STORE_H_
+#define NEURALCCG_MODEL_EMBEDDING_STORE_H_
+
+#include <list>
+#include <string>
+#include <unordered_map>
+#include <vector>
+
+#include "util/mapped-file.h"
+
+namespace neuralccg {
+
+// Read-only view of the vocabulary and memory-mapped float32 matrix written by the Java EmbeddingStore.
+class EmbeddingStore {
+ public:
+  explicit EmbeddingStore(const std::string &directory);
+
+  const std::vector<std::string> &Words() const {
+    return words;
+  }
+
+  unsigned Dimensions() const {
+    return dimensions;
+  }
+
+  const float *Row(unsigned index) const {
+    return reinterpret_cast<const float*>(matrix.Data()) + static_cast<size_t>(index) * dimensions;
+  }
+
+ private:
+  MappedFile matrix;
+  std::vector<std::string> words;
+  unsigned dimensions;
+};
+
+// Bounded least-recently-used table of embeddings for words outside the trained vocabulary, which are
+// copied from the store on demand. Rows are frozen, since rare words only need their initial embeddings.
+//
+// Rows used by the current sentence are never evicted, since the computation graph still points at them.
+class OverflowEmbeddings {
+ public:
+  OverflowEmbeddings(const std::string &directory, unsigned capacity);
+  void StartSentence();
+
+  // Returns nullptr if the word is not in the store or every row is in use by the current sentence.
+  const std::vector<float> *Lookup(const std::string &word);
+
+ private:
+  struct Entry {
+    std::string word;
+    std::vector<float> values;
+    unsigned sentence;
+  };
+
+  EmbeddingStore store;
+  // Store rows sorted by word, so that words are found by binary search without copying the vocabulary.
+  std::vector<unsigned> sorted_rows;
+  unsigned capacity;
+  unsigned sentence;
+  std::list<Entry> entries;
+  std::unordered_map<std::string, std::list<Entry>::iterator> cache;
+};
+
+}
+
+#endif
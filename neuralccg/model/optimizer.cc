@@ -0,0 +1,173 @@
+#include "optimizer.h"
+
+#include <algorithm>
+#include <cmath>
+
+namespace neuralccg {
+
+Optimizer::Optimizer(Model *model,
+                     const TrainConfig &train_config,
+                     const std::unordered_set<const Parameters*> &sparse_params) :
+  model(model),
+  sparse(train_config.sparse_updates()),
+  sparse_params(sparse_params),
+  param_moments(model->parameters_list().size()),
+  lookup_moments(model->lookup_parameters_list().size()),
+  step(0),
+  lambda(1e-6),
+  clip_threshold(5),
+  momentum(0.9),
+  beta1(0.9),
+  beta2(0.999),
+  epsilon(1e-8) {
+  if (train_config.update_method() == "adam") {
+    use_adam = true;
+    learning_rate = 0.001;
+  } else if (train_config.update_method() == "momentum") {
+    use_adam = false;
+    learning_rate = 0.01;
+  } else {
+    throw std::runtime_error("Unknown update method: " + train_config.update_method());
+  }
+  for (unsigned i = 0; i < lookup_moments.size(); ++i) {
+    lookup_moments[i].resize(model->lookup_parameters_list()[i]->values.size());
+  }
+}
+
+void Optimizer::UpdateValues(float *values_buffer,
+                             float *gradient_buffer,
+                             unsigned size,
+                             float gradient_scale,
+                             Moments *moments) {
+  Eigen::Map<Eigen::VectorXf> values(values_buffer, size);
+  Eigen::Map<Eigen::VectorXf> gradient(gradient_buffer, size);
+  if (moments->first.empty()) {
+    moments->first.assign(size, 0);
+    if (use_adam) {
+      moments->second.assign(size, 0);
+    }
+  }
+  Eigen::Map<Eigen::VectorXf> first(moments->first.data(), size);
+
+  // Catch up on the steps without a gradient. Dense updates leave skipped rows untouched, like the CNN trainers.
+  const unsigned skipped = step - moments->last_update - 1;
+  moments->last_update = step;
+  if (sparse && skipped > 0) {
+    values *= std::pow(1 - lambda, skipped);
+    if (use_adam) {
+      Eigen::Map<Eigen::VectorXf> second(moments->second.data(), size);
+      first *= std::pow(beta1, skipped);
+      second *= std::pow(beta2, skipped);
+    } else {
+      values += first * (momentum * (1 - std::pow(momentum, skipped)) / (1 - momentum));
+      first *= std::pow(momentum, skipped);
+    }
+  }
+
+  if (use_adam) {
+    Eigen::Map<Eigen::VectorXf> second(moments->second.data(), size);
+    first = beta1 * first + ((1 - beta1) * gradient_scale) * gradient;
+    second = beta2 * second + ((1 - beta2) * gradient_scale * gradient_scale) * gradient.cwiseAbs2();
+    const float first_correction = 1 - std::pow(beta1, step);
+    const float second_correction = 1 - std::pow(beta2, step);
+    values -= lambda * values;
+    values -= ((learning_rate / first_correction) * first.array()
+               / ((second.array() / second_correction).sqrt() + epsilon)).matrix();
+  } else {
+    first = momentum * first - (learning_rate * gradient_scale) * gradient;
+    values += first - lambda * values;
+  }
+}
+
+void Optimizer::Update(const std::unordered_set<const Parameters*> &active_params) {
+  ++step;
+  const std::vector<Parameters*> &params = model->parameters_list();
+  const std::vector<LookupParameters*> &lookup_params = model->lookup_parameters_list();
+
+  // Select what to update at this step and compute the gradient norm for clipping.
+  float squared_norm = 0;
+  std::vector<unsigned> updated_params;
+  for (unsigned i = 0; i < params.size(); ++i) {
+    if (!sparse || !sparse_params.count(params[i]) || active_params.count(params[i])) {
+      updated_params.push_back(i);
+      squared_norm += params[i]->g.vec().squaredNorm();
+    }
+  }
+  std::vector<std::vector<unsigned>> updated_rows(lookup_params.size());
+  for (unsigned i = 0; i < lookup_params.size(); ++i) {
+    LookupParameters *p = lookup_params[i];
+    updated_rows[i].assign(p->non_zero_grads.begin(), p->non_zero_grads.end());
+    std::sort(updated_rows[i].begin(), updated_rows[i].end());
+    for (const unsigned row : updated_rows[i]) {
+      squared_norm += p->grads[row].vec().squaredNorm();
+    }
+  }
+  const float norm = std::sqrt(squared_norm);
+  const float gradient_scale = norm > clip_threshold ? clip_threshold / norm : 1;
+
+  for (const unsigned i : updated_params) {
+    Parameters *p = params[i];
+    UpdateValues(p->values.v, p->g.v, p->dim.size(), gradient_scale, &param_moments[i]);
+    p->clear();
+  }
+  for (unsigned i = 0; i < lookup_params.size(); ++i) {
+    LookupParameters *p = lookup_params[i];
+    for (const unsigned row : updated_rows[i]) {
+      UpdateValues(p->values[row].v, p->grads[row].v, p->dim.size(), gradient_scale, &lookup_moments[i][row]);
+    }
+    p->clear();
+  }
+}
+
+void Optimizer::SaveMoments(const Moments &moments, MomentsProto *proto) {
+  proto->mutable_first()->Reserve(moments.first.size());
+  for (const float value : moments.first) {
+    proto->add_first(value);
+  }
+  proto->mutable_second()->Reserve(moments.second.size());
+  for (const float value : moments.second) {
+    proto->add_second(value);
+  }
+  proto->set_last_update(moments.last_update);
+}
+
+void Optimizer::LoadMoments(const MomentsProto &proto, Moments *moments) {
+  moments->first.assign(proto.first().begin(), proto.first().end());
+  moments->second.assign(proto.second().begin(), proto.second().end());
+  moments->last_update = proto.last_update();
+}
+
+void Optimizer::Save(OptimizerStateProto *state) const {
+  state->set_step(step);
+  for (const Moments &moments : param_moments) {
+    SaveMoments(moments, state->add_parameters());
+  }
+  for (const std::vector<Moments> &rows : lookup_moments) {
+    LookupMomentsProto *lookup_state = state->add_lookup_parameters();
+    for (const Moments &moments : rows) {
+      SaveMoments(moments, lookup_state->add_row());
+    }
+  }
+}
+
+void Optimizer::Load(const OptimizerStateProto &state) {
+  if (state.parameters_size() != static_cast<int>(param_moments.size()) ||
+      state.lookup_parameters_size() != static_cast<int>(lookup_moments.size())) {
+    throw std::runtime_error("Optimizer state does not match the model.");
+  }
+  step = state.step();
+  for (unsigned i = 0; i < param_moments.size(); ++i) {
+    LoadMoments(state.parameters(i), &param_moments[i]);
+  }
+  for (unsigned i = 0; i < lookup_moments.size(); ++i) {
+    const LookupMomentsProto &lookup_state = state.lookup_parameters(i);
+    if (lookup_state.row_size() != static_cast<int>(lookup_moments[i].size())) {
+      throw std::runtime_error("Optimizer state does not match the model.");
+    }
+    for (unsigned j = 0; j < lookup_moments[i].size(); ++j) {
+      LoadMoments(lookup_state.row(j), &lookup_moments[i][j]);
+    }
+  }
+}
+
+}
@@ -0,0 +1,62 @@
+#ifndef NEURALCCG_MODEL_OPTIMIZER_H_
+#define NEURALCCG_MODEL_OPTIMIZER_H_
+
+#include <unordered_set>
+#include <vector>
+
+#include "cnn/cnn.h"
+#include "cnn/model.h"
+#include "neuralccg/proto/train.pb.h"
+
+using namespace cnn;
+
+namespace neuralccg {
+
+// Adam or momentum SGD with the same hyperparameters as the CNN trainers. As in the CNN trainers,
+// lookup parameters are only updated for rows with non-zero gradients and other parameters are always
+// updated.
+//
+// With sparse updates, the given sparse parameters are also only updated when they are active, and the
+// steps that a parameter or row skipped are accounted for lazily the next time it is updated: moments
+// and weight decay are decayed by the number of skipped steps, and momentum additionally applies the
+// velocity it would have accumulated.
+class Optimizer {
+ public:
+  Optimizer(Model *model,
+            const TrainConfig &train_config,
+            const std::unordered_set<const Parameters*> &sparse_params);
+  void Update(const std::unordered_set<const Parameters*> &active_params);
+  void Save(OptimizerStateProto *state) const;
+  void Load(const OptimizerStateProto &state);
+
+ private:
+  struct Moments {
+    std::vector<float> first;
+    std::vector<float> second;
+    unsigned last_update = 0;
+  };
+
+  static void SaveMoments(const Moments &moments, MomentsProto *proto);
+  static void LoadMoments(const MomentsProto &proto, Moments *moments);
+  void UpdateValues(float *values, float *gradient, unsigned size, float gradient_scale, Moments *moments);
+
+  Model *model;
+  bool use_adam;
+  bool sparse;
+  std::unordered_set<const Parameters*> sparse_params;
+  std::vector<Moments> param_moments;
+  std::vector<std::vector<Moments>> lookup_moments;
+  unsigned step;
+
+  float learning_rate;
+  float lambda;
+  float clip_threshold;
+  float momentum;
+  float beta1;
+  float beta2;
+  float epsilon;
+};
+
+}
+
+#endif
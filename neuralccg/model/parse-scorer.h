@@ -3,9 +3,9 @@
 
 #include "cnn/cnn.h"
 #include "cnn/expr.h"
-#include "cnn/training.h"
 #include "neuralccg/proto/train.pb.h"
 #include "neuralccg/proto/syntax.pb.h"
+#include "optimizer.h"
 
 using namespace cnn;
 
@@ -23,7 +23,12 @@ class ParseScorer {
   virtual void InitializeTraining(const TrainConfig &train_config) = 0;
   virtual void InitializeSentence(const SentenceProto &chart, InitialGatesProto *initial_gates) = 0;
   virtual float ScoreAndBuildRepresentation(const ParseProto &parse, GatesProto *gates) = 0;
-  virtual void ApplyUpdate(const UpdateProto &update, Trainer *trainer) = 0;
+  virtual void ApplyUpdate(const UpdateProto &update, Optimizer *optimizer) = 0;
+
+  // Parameters that only need to be updated when they are used.
+  virtual std::unordered_set<const Parameters*> SparseParameters() const {
+    return {};
+  }
 
   cnn::Model model;
 };
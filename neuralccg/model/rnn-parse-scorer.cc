@@ -1,3 +1,5 @@
+#include <cstring>
+
 #include "neuralccg/proto/train.pb.h"
 #include "rnn-parse-scorer.h"
 #include "util/serialization-util.h"
@@ -67,6 +69,9 @@ RnnParseScorer::RnnParseScorer(const ScorerConfig &config) : config(config) {
   // Negative layer number means we are ablating lexical inputs.
   if (config.num_layers() >= 0) {
     word_params = model.add_lookup_parameters(word_dictionary.size(), {config.word_dimensions()});
+    if (config.overflow_words() > 0 && !config.use_char_lstm()) {
+      overflow_embeddings.reset(new OverflowEmbeddings(config.embedding_store(), config.overflow_words()));
+    }
 
     if (config.num_layers() > 0) {
       forward_lstm.reset(new CustomLSTMBuilder(config.num_layers(), config.word_dimensions(), config.cell_dimensions(), &model));
@@ -164,8 +169,27 @@ RnnParseScorer::RnnParseScorer(const ScorerConfig &config) : config(config) {
   }
 }
 
+// Copies rows of an EmbeddingStore directly from the mapped matrix into the word parameters. Words
+// outside the vocabulary are skipped, since they would otherwise overwrite the unknown word.
+void RnnParseScorer::LoadEmbeddingStore(const std::string &directory) {
+  const EmbeddingStore store(directory);
+  if (store.Dimensions() != config.word_dimensions()) {
+    throw std::invalid_argument("Embedding store does not match the word dimensions: " + directory);
+  }
+  for (unsigned i = 0; i < store.Words().size(); ++i) {
+    if (word_dictionary.Contains(store.Words()[i])) {
+      std::memcpy(word_params->values[word_dictionary.Convert(store.Words()[i])].v,
+                  store.Row(i),
+                  sizeof(float) * store.Dimensions());
+    }
+  }
+}
+
 void RnnParseScorer::InitializeTraining(const TrainConfig &train_config) {
-  if (config.num_layers() >= 0) {
+  // Initial embeddings are omitted when resuming from a trained model.
+  if (config.num_layers() >= 0 && !train_config.embedding_store().empty()) {
+    LoadEmbeddingStore(train_config.embedding_store());
+  } else if (config.num_layers() >= 0 && train_config.initial_embedding_size() > 0) {
     std::vector<float> values;
     values.reserve(train_config.initial_embedding(0).value_size());
     for (const WordEmbedding &embedding : train_config.initial_embedding()) {
@@ -178,19 +202,42 @@ void RnnParseScorer::InitializeTraining(const TrainConfig &train_config) {
   }
 }
 
+expr::Expression RnnParseScorer::IndexedParameter(unsigned type, unsigned index) {
+  expr::Expression &expression = indexed_params_cg[type][index];
+  if (expression.pg == nullptr) {
+    expression = expr::parameter(*cg, indexed_params[type][index]);
+    active_params.insert(indexed_params[type][index]);
+  }
+  return expression;
+}
+
+std::unordered_set<const Parameters*> RnnParseScorer::SparseParameters() const {
+  std::unordered_set<const Parameters*> sparse_params;
+  for (const unsigned type : {CHE, CE}) {
+    sparse_params.insert(indexed_params[type].begin(), indexed_params[type].end());
+  }
+  return sparse_params;
+}
+
 expr::Expression RnnParseScorer::BuildInputEmbedding(const std::string &word) {
   if (config.use_char_lstm()) {
       char_forward_lstm->start_new_sequence();
       char_backward_lstm->start_new_sequence();
-      char_forward_lstm->add_input(indexed_params_cg[CHE][char_start]);
-      char_backward_lstm->add_input(indexed_params_cg[CHE][char_end]);
+      char_forward_lstm->add_input(IndexedParameter(CHE, char_start));
+      char_backward_lstm->add_input(IndexedParameter(CHE, char_end));
       expr::Expression forward_output, backward_output;
       for (unsigned i = 0; i < word.size(); ++i) {
-        forward_output = char_forward_lstm->add_input(indexed_params_cg[CHE][char_dictionary.Convert(std::string(1, word.at(i)))]);
-        backward_output = char_backward_lstm->add_input(indexed_params_cg[CHE][char_dictionary.Convert(std::string(1, word.at(word.size() - i - 1)))]);
+        forward_output = char_forward_lstm->add_input(IndexedParameter(CHE, char_dictionary.Convert(std::string(1, word.at(i)))));
+        backward_output = char_backward_lstm->add_input(IndexedParameter(CHE, char_dictionary.Convert(std::string(1, word.at(word.size() - i - 1)))));
       }
       return expr::concatenate({forward_output, backward_output});
   } else {
+    if (overflow_embeddings && !word_dictionary.Contains(word)) {
+      const std::vector<float> *values = overflow_embeddings->Lookup(word);
+      if (values != nullptr) {
+        return expr::input(*cg, {config.word_dimensions()}, values);
+      }
+    }
     return expr::lookup(*cg, word_params, word_dictionary.Convert(word));
   }
 }
@@ -214,11 +261,16 @@ void RnnParseScorer::InitializeSentence(const SentenceProto &sentence, InitialGa
     params_cg[i] = expr::parameter(*cg, params[i]);
   }
 
+  // Indexed params are only added to the graph when used, so that the optimizer can skip the rest.
   for (unsigned i = 0; i < indexed_params.size(); ++i) {
     for (unsigned j = 0; j < indexed_params[i].size(); ++j) {
-      indexed_params_cg[i][j] = expr::parameter(*cg, indexed_params[i][j]);
+      indexed_params_cg[i][j] = expr::Expression();
     }
   }
+  active_params.clear();
+  if (overflow_embeddings) {
+    overflow_embeddings->StartSentence();
+  }
 
   if (config.num_layers() >= 0) {
     input_embeddings.clear();
@@ -272,16 +324,16 @@ expr::Expression RnnParseScorer::BuildCategoryEmbedding(const CategoryProto& cat
     if (category.has_left()) {
       expr::Expression left_embedding = BuildCategoryEmbedding(category.left());
       expr::Expression right_embedding = BuildCategoryEmbedding(category.right());
-      return expr::tanh(expr::affine_transform({indexed_params_cg[SB][category.slash()],
-                                                indexed_params_cg[SW][category.slash()],
+      return expr::tanh(expr::affine_transform({IndexedParameter(SB, category.slash()),
+                                                IndexedParameter(SW, category.slash()),
                                                 expr::concatenate({left_embedding, right_embedding})}));
     } else {
-      return indexed_params_cg[CE][category_dictionary.Convert(category.atomic())];
+      return IndexedParameter(CE, category_dictionary.Convert(category.atomic()));
     }
   } else {
     std::string category_string;
     CategoryToString(category, &category_string);
-    return indexed_params_cg[CE][category_dictionary.Convert(category_string)];
+    return IndexedParameter(CE, category_dictionary.Convert(category_string));
   }
 }
 
@@ -289,8 +341,8 @@ expr::Expression RnnParseScorer::ApplyRule(const RuleTypeProto &rule_type,
                                            int weights,
                                            int bias,
                                            expr::Expression concat_embedding) {
-  return expr::affine_transform({indexed_params_cg[bias][rule_type],
-                                 indexed_params_cg[weights][rule_type],
+  return expr::affine_transform({IndexedParameter(bias, rule_type),
+                                 IndexedParameter(weights, rule_type),
                                  concat_embedding});
 }
 
@@ -425,7 +477,7 @@ float RnnParseScorer::ScoreAndBuildRepresentation(const ParseProto &parse, Gates
   return as_scalar(cg->get_value(current_score));
 }
 
-void RnnParseScorer::ApplyUpdate(const UpdateProto &update, Trainer *trainer) {
+void RnnParseScorer::ApplyUpdate(const UpdateProto &update, Optimizer *optimizer) {
   expr::Expression loss_expression;
   if (update.use_crf_loss()) {
       std::vector<expr::Expression> all, correct;
@@ -453,7 +505,7 @@ void RnnParseScorer::ApplyUpdate(const UpdateProto &update, Trainer *trainer) {
   }
   as_scalar(cg->get_value(loss_expression));
   cg->backward();
-  trainer->update(1.0);
+  optimizer->Update(active_params);
 }
 
 }
@@ -8,6 +8,7 @@
 #include "cnn/lstm.h"
 #include "parse-scorer.h"
 #include "custom-lstm.h"
+#include "embedding-store.h"
 
 using namespace cnn;
 
@@ -19,13 +20,15 @@ class RnnParseScorer: public ParseScorer {
   void InitializeTraining(const TrainConfig &train_config) override;
   void InitializeSentence(const SentenceProto &sentence, InitialGatesProto *initial_gates) override;
   float ScoreAndBuildRepresentation(const ParseProto &parse, GatesProto *gates) override;
-  void ApplyUpdate(const UpdateProto &update, Trainer *trainer) override;
+  void ApplyUpdate(const UpdateProto &update, Optimizer *optimizer) override;
+  std::unordered_set<const Parameters*> SparseParameters() const override;
 
   // See rnn-parse-scorer.cc for explanations of the parameters.
   enum { CHE, CE, SW, SB, CW, CB, IW, IB, LFW, LFB, RFW, RFB, OW, OB };
   enum { NC, NH, PW };
 
  private:
+  expr::Expression IndexedParameter(unsigned type, unsigned index);
   expr::Expression BuildCategoryEmbedding(const CategoryProto& category);
   expr::Expression BuildInputEmbedding(const std::string &word);
   expr::Expression BuildStartInputEmbedding();
@@ -37,12 +40,14 @@ class RnnParseScorer: public ParseScorer {
   unsigned ConvertPrefix(const std::string& word, unsigned index);
   unsigned ConvertSuffix(const std::string& word, unsigned index);
   void CategoryToString(const CategoryProto& category, std::string *result);
+  void LoadEmbeddingStore(const std::string &directory);
 
   const ScorerConfig &config;
 
   std::vector<Parameters *> params;
   std::vector<std::vector<Parameters *>> indexed_params;
   LookupParameters * word_params;
+  std::unique_ptr<OverflowEmbeddings> overflow_embeddings;
 
   std::unique_ptr<ComputationGraph> cg;
   std::vector<expr::Expression> input_embeddings;
@@ -53,6 +58,7 @@ class RnnParseScorer: public ParseScorer {
 
   std::vector<expr::Expression> params_cg;
   std::vector<std::vector<expr::Expression>> indexed_params_cg;
+  std::unordered_set<const Parameters*> active_params;
   std::vector<expr::Expression> cells;
   std::vector<expr::Expression> outputs;
   std::vector<expr::Expression> accumulated_scores;
@@ -8,6 +8,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.HashSet;
 import java.util.List;
@@ -15,13 +16,14 @@ import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import edu.uw.easysrl.corpora.CCGBankDependencies.DependencyParse;
 import edu.uw.easysrl.dependencies.DependencyGenerator;
 import edu.uw.easysrl.dependencies.ResolvedDependency;
 import edu.uw.easysrl.dependencies.UnlabelledDependency;
 import edu.uw.easysrl.main.InputReader.InputWord;
 import edu.uw.easysrl.syntax.evaluation.CCGBankEvaluation;
+import edu.uw.easysrl.syntax.grammar.Category;
 import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode;
+import edu.uw.neuralccg.util.LongHashSet;
 import edu.uw.neuralccg.util.RetrievalStatistics;
 import edu.uw.neuralccg.util.SyntaxUtil;
 
@@ -32,8 +34,12 @@ public class DependencyEvaluator implements Serializable {
     private final DependencyGenerator dependencyGenerator;
     private final Set<String> validDependencies;
 
+    // Valid dependencies keyed by category id and argument number. Category ids are only stable within a
+    // process, so the table is rebuilt from the string keys after deserialization.
+    private transient LongHashSet validDependencyIds;
+
     public DependencyEvaluator(final File modelDir,
-                               final Stream<DependencyParse> trainSentences) {
+                               final Stream<Set<ResolvedDependency>> trainDependencies) {
         try {
             dependencyGenerator = new DependencyGenerator(modelDir);
         } catch (final IOException e) {
@@ -42,10 +48,8 @@ public class DependencyEvaluator implements Serializable {
 
         log.info("Counting valid dependencies...");
         final ConcurrentHashMultiset<String> dependencyCounts = ConcurrentHashMultiset.create();
-        trainSentences
+        trainDependencies
                 .parallel()
-                .map(DependencyParse::getDependencies)
-                .map(CCGBankEvaluation::asResolvedDependencies)
                 .flatMap(Set::stream)
                 .forEach(dep -> dependencyCounts.add(
                         dep.getCategory().toString() + dep.getArgNumber()));
@@ -54,6 +58,43 @@ public class DependencyEvaluator implements Serializable {
                 .map(Entry::getElement)
                 .collect(Collectors.toSet());
         log.info("{} valid dependencies found", validDependencies.size());
+        validDependencyIds = buildValidDependencyIds(validDependencies);
+    }
+
+    private static long dependencyId(final Category category, final int argNumber) {
+        return ((long) category.getID() << 32) | argNumber;
+    }
+
+    // Keys are a category followed by an argument number. Categories never end in a digit.
+    private static LongHashSet buildValidDependencyIds(final Set<String> validDependencies) {
+        final LongHashSet ids = new LongHashSet(validDependencies.size());
+        for (final String dependency : validDependencies) {
+            int split = dependency.length();
+            while (split > 0 && Character.isDigit(dependency.charAt(split - 1))) {
+                split--;
+            }
+            ids.add(dependencyId(Category.valueOf(dependency.substring(0, split)),
+                    Integer.parseInt(dependency.substring(split))));
+        }
+        return ids;
+    }
+
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        validDependencyIds = buildValidDependencyIds(validDependencies);
+    }
+
+    // Packs the fields compared by CCGBank evaluation into a long: 16 bits each for the head and argument
+    // indexes, 24 bits for the category id and 8 bits for the argument number.
+    public static long encode(final ResolvedDependency dependency) {
+        return ((long) dependency.getHead() & 0xFFFF) << 48
+                | ((long) dependency.getArgument() & 0xFFFF) << 32
+                | ((long) dependency.getCategory().getID() & 0xFFFFFF) << 8
+                | (dependency.getArgNumber() & 0xFF);
+    }
+
+    public boolean isValid(final ResolvedDependency dependency) {
+        return validDependencyIds.contains(dependencyId(dependency.getCategory(), dependency.getArgNumber()));
     }
 
     public RetrievalStatistics evaluate(final Set<ResolvedDependency> goldDependencies,
@@ -70,7 +111,8 @@ public class DependencyEvaluator implements Serializable {
         final RetrievalStatistics stats = new RetrievalStatistics();
         stats.update(goldDependencies.stream()
                         .filter(dep -> SyntaxUtil.isDependencyAtStep(dep, predictedParse)),
-                predictedDependencyStream(predictedParse, generateDependencies, leaves, true));
+                predictedDependencyStream(predictedParse, generateDependencies, leaves, true),
+                DependencyEvaluator::encode);
         return stats;
     }
 
@@ -78,7 +120,8 @@ public class DependencyEvaluator implements Serializable {
                          final SyntaxTreeNode predictedParse,
                          final RetrievalStatistics stats) {
         stats.update(goldDependencies.stream(),
-                predictedDependencyStream(predictedParse));
+                predictedDependencyStream(predictedParse),
+                DependencyEvaluator::encode);
     }
 
     public Stream<ResolvedDependency> predictedDependencyStream(final SyntaxTreeNode parse,
@@ -90,7 +133,11 @@ public class DependencyEvaluator implements Serializable {
         }
         final Set<UnlabelledDependency> unlabeledDependencies = new HashSet<>();
         if (generateDependencies) {
-            dependencyGenerator.generateDependencies(parse, unlabeledDependencies);
+            // The EasySRL dependency generator is not known to be thread-safe, and evaluators are shared
+            // between stages. Everything else is only read after construction.
+            synchronized (dependencyGenerator) {
+                dependencyGenerator.generateDependencies(parse, unlabeledDependencies);
+            }
         } else {
             if (local) {
                 unlabeledDependencies.addAll(parse.getResolvedUnlabelledDependencies());
@@ -102,7 +149,7 @@ public class DependencyEvaluator implements Serializable {
                 .convertDeps(leaves, unlabeledDependencies)
                 .stream()
                 .filter(x -> x.getHead() != x.getArgument())
-                .filter(x -> validDependencies.contains(x.getCategory().toString() + x.getArgNumber()));
+                .filter(this::isValid);
     }
 
     public Stream<ResolvedDependency> predictedDependencyStream(final SyntaxTreeNode parse,
@@ -0,0 +1,103 @@
+package edu.uw.neuralccg.evaluation;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import edu.uw.easysrl.syntax.grammar.Category;
+import edu.uw.easysrl.syntax.tagger.TaggerEmbeddings;
+import edu.uw.neuralccg.AnalysisProto.EvaluationShardProto;
+import edu.uw.neuralccg.AnalysisProto.SentenceEvaluationProto;
+import edu.uw.neuralccg.CorpusProto.GoldSentenceProto;
+import edu.uw.neuralccg.TrainProto.RunConfig;
+import edu.uw.neuralccg.evaluation.analysis.ParserStatistics;
+import edu.uw.neuralccg.grammar.BinaryRuleTable;
+import edu.uw.neuralccg.model.OracleModel.GoldInputToParser;
+import edu.uw.neuralccg.model.TreeFactoredModel.TreeFactoredModelFactory;
+import edu.uw.neuralccg.task.EvaluateParserTask;
+import edu.uw.neuralccg.util.ArtifactCache;
+import edu.uw.neuralccg.util.CorpusUtil;
+import edu.uw.neuralccg.util.EasySRLUtil;
+import edu.uw.neuralccg.util.RecordFile;
+import edu.uw.neuralccg.util.SerializationUtil;
+
+// Entry point of the processes started by ShardedEvaluator. Reads a shard from the given file, loads the
+// checkpoint once, and streams the counts for each sentence back to the coordinator on the given port.
+public class EvaluationWorker {
+    public static final Logger log = LoggerFactory.getLogger(EvaluationWorker.class);
+
+    public static void main(String[] args) throws IOException {
+        final int port = Integer.parseInt(args[0]);
+        final EvaluationShardProto shard;
+        try (final InputStream in = new FileInputStream(args[1])) {
+            shard = EvaluationShardProto.parseFrom(in);
+        }
+
+        final Config arguments = ConfigFactory.parseString(shard.getArguments());
+        final DependencyEvaluator evaluator = SerializationUtil.deserialize(shard.getEvaluator());
+        final List<GoldInputToParser> inputs;
+        try (final RecordFile inputsFile = RecordFile.open(new File(shard.getInputsPath()))) {
+            inputs = IntStream.range(0, inputsFile.size())
+                    .filter(i -> i % shard.getNumShards() == shard.getShard())
+                    .mapToObj(i -> inputsFile.get(i, GoldSentenceProto.getDefaultInstance().getParserForType()))
+                    .map(CorpusUtil::toGoldInput)
+                    .collect(Collectors.toList());
+        }
+        final List<Category> categories = TaggerEmbeddings.loadCategories(
+                new File(arguments.getString("model_dir"), "categories"));
+
+        TreeFactoredModelFactory.initializeCNN(RunConfig.newBuilder()
+                .setMemory(arguments.getInt("native_memory")).build());
+
+        log.info("Evaluating {} sentences of {}", inputs.size(), shard.getCheckpointPath());
+        try (final Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             final OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+             final ArtifactCache.Handle<Optional<BinaryRuleTable>> ruleTable = ArtifactCache.acquireBinaryRuleTable(arguments)) {
+            final ParserStatistics parserStats = new ParserStatistics();
+            final AtomicInteger index = new AtomicInteger(0);
+            EvaluateParserTask.evaluateInputs(
+                    EasySRLUtil.parserBuilder(arguments, ruleTable.get()),
+                    new File(shard.getCheckpointPath()),
+                    inputs,
+                    arguments,
+                    EasySRLUtil.backoffParserBuilder(arguments),
+                    evaluator,
+                    categories,
+                    true,
+                    parserStats,
+                    (stats, backoffStats) -> {
+                        try {
+                            SentenceEvaluationProto.newBuilder()
+                                    .setIndex(index.getAndIncrement())
+                                    .setEval(stats.toCounts())
+                                    .setEvalBackoff(backoffStats.toCounts())
+                                    .setParseStats(parserStats.toCounts())
+                                    .build()
+                                    .writeDelimitedTo(out);
+                            out.flush();
+                        } catch (final IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                        // Only send the change for each sentence.
+                        parserStats.clear();
+                    });
+        }
+        System.exit(0);
+    }
+}
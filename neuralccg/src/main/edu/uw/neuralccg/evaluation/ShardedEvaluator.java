@@ -0,0 +1,201 @@
+package edu.uw.neuralccg.evaluation;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigRenderOptions;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import edu.uw.neuralccg.AnalysisProto.EvaluationEvent;
+import edu.uw.neuralccg.AnalysisProto.EvaluationShardProto;
+import edu.uw.neuralccg.AnalysisProto.SentenceEvaluationProto;
+import edu.uw.neuralccg.SerializationProto.Serialized;
+import edu.uw.neuralccg.evaluation.analysis.CheckpointStatistics;
+import edu.uw.neuralccg.model.OracleModel.GoldInputToParser;
+import edu.uw.neuralccg.util.CorpusUtil;
+import edu.uw.neuralccg.util.ProgressLogger;
+import edu.uw.neuralccg.util.RecordFile;
+
+// Evaluates a checkpoint by splitting the inputs into shards and parsing each shard in a separate
+// EvaluationWorker process on this machine. The inputs are written once to a record file, from which each
+// worker decodes only its own shard. Workers stream back counts for every sentence over a loopback
+// socket, which are merged into a single evaluation event. A shard whose worker fails is discarded and
+// rerun from the start in a new process.
+public class ShardedEvaluator {
+    public static final Logger log = LoggerFactory.getLogger(ShardedEvaluator.class);
+
+    private static final int ACCEPT_TIMEOUT_MILLIS = 1000;
+
+    private final String arguments;
+    private final Serialized evaluator;
+    private final File inputsFile;
+    private final List<Integer> shardSizes;
+    private final int maxAttempts;
+    private final String workerMemory;
+
+    public ShardedEvaluator(final List<GoldInputToParser> inputs,
+                            final Serialized evaluator,
+                            final Config arguments,
+                            final int numWorkers) {
+        this.arguments = arguments.root().render(ConfigRenderOptions.concise());
+        this.evaluator = evaluator;
+        this.maxAttempts = arguments.hasPath("worker_attempts") ? arguments.getInt("worker_attempts") : 3;
+        this.workerMemory = arguments.hasPath("worker_memory") ? arguments.getString("worker_memory") : "4G";
+        try {
+            this.inputsFile = File.createTempFile("evaluation-inputs-", ".records");
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+        inputsFile.deleteOnExit();
+        RecordFile.write(inputsFile, inputs.stream().map(CorpusUtil::toProto));
+        // Shards are interleaved so that each worker gets a similar mix of sentence lengths.
+        final int numShards = Math.min(numWorkers, inputs.size());
+        this.shardSizes = IntStream.range(0, numShards)
+                .mapToObj(shard -> (inputs.size() - shard + numShards - 1) / numShards)
+                .collect(Collectors.toList());
+    }
+
+    private static class ShardResult {
+        private final CheckpointStatistics checkpointStats = new CheckpointStatistics();
+        private int count = 0;
+
+        private void add(final SentenceEvaluationProto sentence) {
+            checkpointStats.merge(sentence);
+            count++;
+        }
+    }
+
+    public EvaluationEvent evaluate(final File checkpointPath, final Optional<ProgressLogger> progressLogger) {
+        return computeStatistics(checkpointPath, progressLogger).toEvent(checkpointPath).build();
+    }
+
+    public CheckpointStatistics computeStatistics(final File checkpointPath, final Optional<ProgressLogger> progressLogger) {
+        final CheckpointStatistics checkpointStats = new CheckpointStatistics();
+        if (shardSizes.isEmpty()) {
+            return checkpointStats;
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(shardSizes.size());
+        try {
+            final List<Future<ShardResult>> results = new ArrayList<>();
+            for (int shard = 0; shard < shardSizes.size(); shard++) {
+                final int currentShard = shard;
+                results.add(executor.submit(() -> evaluateShard(checkpointPath, currentShard, progressLogger)));
+            }
+            for (final Future<ShardResult> result : results) {
+                checkpointStats.merge(result.get().checkpointStats);
+            }
+        } catch (final InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+        return checkpointStats;
+    }
+
+    private ShardResult evaluateShard(final File checkpointPath,
+                                      final int shard,
+                                      final Optional<ProgressLogger> progressLogger) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                final ShardResult result = runWorker(checkpointPath, shard, progressLogger);
+                if (result.count == shardSizes.get(shard)) {
+                    return result;
+                }
+                log.warn("Worker returned {} of {} sentences (attempt {} of {}).", result.count, shardSizes.get(shard), attempt, maxAttempts);
+            } catch (final IOException e) {
+                log.warn("Worker failed (attempt {} of {}).", attempt, maxAttempts, e);
+            }
+            if (attempt >= maxAttempts) {
+                throw new RuntimeException("Failed to evaluate shard of " + checkpointPath.getAbsolutePath());
+            }
+        }
+    }
+
+    private ShardResult runWorker(final File checkpointPath,
+                                  final int shard,
+                                  final Optional<ProgressLogger> progressLogger) throws IOException {
+        final File shardFile = File.createTempFile("evaluation-shard-", ".pb");
+        Process process = null;
+        try (final ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            try (final OutputStream out = new FileOutputStream(shardFile)) {
+                EvaluationShardProto.newBuilder()
+                        .setCheckpointPath(checkpointPath.getAbsolutePath())
+                        .setArguments(arguments)
+                        .setEvaluator(evaluator)
+                        .setInputsPath(inputsFile.getAbsolutePath())
+                        .setShard(shard)
+                        .setNumShards(shardSizes.size())
+                        .build()
+                        .writeTo(out);
+            }
+
+            process = new ProcessBuilder(
+                    new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath(),
+                    "-Xmx" + workerMemory,
+                    "-Djava.library.path=" + System.getProperty("java.library.path"),
+                    "-classpath",
+                    System.getProperty("java.class.path"),
+                    EvaluationWorker.class.getName(),
+                    Integer.toString(serverSocket.getLocalPort()),
+                    shardFile.getAbsolutePath())
+                    .inheritIO()
+                    .start();
+
+            // Stop waiting for a connection if the worker dies before connecting.
+            serverSocket.setSoTimeout(ACCEPT_TIMEOUT_MILLIS);
+            Socket socket = null;
+            while (socket == null) {
+                try {
+                    socket = serverSocket.accept();
+                } catch (final SocketTimeoutException e) {
+                    if (!process.isAlive()) {
+                        throw new IOException("Worker exited with status " + process.exitValue() + " before connecting.");
+                    }
+                }
+            }
+
+            final ShardResult result = new ShardResult();
+            try (final InputStream in = new BufferedInputStream(socket.getInputStream())) {
+                SentenceEvaluationProto sentence;
+                while ((sentence = SentenceEvaluationProto.parseDelimitedFrom(in)) != null) {
+                    result.add(sentence);
+                    progressLogger.ifPresent(ProgressLogger::maybeLog);
+                }
+            } finally {
+                socket.close();
+            }
+            final int status = process.waitFor();
+            if (status != 0) {
+                throw new IOException("Worker exited with status " + status + ".");
+            }
+            return result;
+        } catch (final InterruptedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (process != null) {
+                process.destroyForcibly();
+            }
+            shardFile.delete();
+        }
+    }
+}
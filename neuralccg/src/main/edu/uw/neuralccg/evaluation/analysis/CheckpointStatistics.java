@@ -0,0 +1,79 @@
+package edu.uw.neuralccg.evaluation.analysis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+
+import edu.uw.neuralccg.AnalysisProto.EvaluationEvent;
+import edu.uw.neuralccg.AnalysisProto.SentenceEvaluationProto;
+
+// Everything measured while evaluating a checkpoint, which can be merged across sentences, shards and
+// subsets of the inputs.
+public class CheckpointStatistics {
+    public static final Logger log = LoggerFactory.getLogger(CheckpointStatistics.class);
+
+    private final EvaluationStatistics stats;
+    private final EvaluationStatistics backoffStats;
+    private final ParserStatistics parserStats;
+
+    public CheckpointStatistics() {
+        this(new EvaluationStatistics(), new EvaluationStatistics(), new ParserStatistics());
+    }
+
+    public CheckpointStatistics(final EvaluationStatistics stats,
+                                final EvaluationStatistics backoffStats,
+                                final ParserStatistics parserStats) {
+        this.stats = stats;
+        this.backoffStats = backoffStats;
+        this.parserStats = parserStats;
+    }
+
+    public void merge(final CheckpointStatistics other) {
+        stats.merge(other.stats);
+        backoffStats.merge(other.backoffStats);
+        parserStats.merge(other.parserStats.toCounts());
+    }
+
+    public void merge(final SentenceEvaluationProto sentence) {
+        stats.merge(EvaluationStatistics.fromCounts(sentence.getEval()));
+        backoffStats.merge(EvaluationStatistics.fromCounts(sentence.getEvalBackoff()));
+        parserStats.merge(sentence.getParseStats());
+    }
+
+    public EvaluationStatistics getStats() {
+        return stats;
+    }
+
+    public EvaluationStatistics getBackoffStats() {
+        return backoffStats;
+    }
+
+    public ParserStatistics getParserStats() {
+        return parserStats;
+    }
+
+    public EvaluationEvent.Builder toEvent(final File checkpointPath) {
+        final long steps = Long.parseLong(checkpointPath.getName().substring(0, checkpointPath.getName().length() - ".pb".length()));
+
+        log.info("=====Evaluation=====");
+        stats.log();
+        log.info("===================");
+
+        log.info("=====Evaluation with backoff=====");
+        backoffStats.log();
+        log.info("===================");
+
+        log.info("=====Parse stats=====");
+        parserStats.log();
+        log.info("===================");
+        return EvaluationEvent.newBuilder()
+                .setName(checkpointPath.getParentFile().getName())
+                .setCheckpointPath(checkpointPath.getAbsolutePath())
+                .setTimestamp(checkpointPath.lastModified())
+                .setSteps(steps)
+                .setEval(stats.toProto())
+                .setEvalBackoff(backoffStats.toProto())
+                .setParseStats(parserStats.toProto());
+    }
+}
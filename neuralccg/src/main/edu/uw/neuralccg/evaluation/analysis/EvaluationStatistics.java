@@ -1,5 +1,6 @@
 package edu.uw.neuralccg.evaluation.analysis;
 
+import com.google.common.base.Preconditions;
 import com.google.common.base.Stopwatch;
 
 import com.github.kentonl.pipegraph.util.CollectionUtil;
@@ -8,57 +9,334 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import edu.uw.easysrl.dependencies.ResolvedDependency;
 import edu.uw.easysrl.syntax.grammar.Category;
 import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode;
 import edu.uw.easysrl.util.Util;
+import edu.uw.neuralccg.AnalysisProto.DistributionProto;
+import edu.uw.neuralccg.AnalysisProto.EvaluationCountsProto;
 import edu.uw.neuralccg.AnalysisProto.EvaluationProto;
+import edu.uw.neuralccg.AnalysisProto.HistogramProto;
+import edu.uw.neuralccg.AnalysisProto.SentenceCostProto;
 import edu.uw.neuralccg.evaluation.DependencyEvaluator;
+import edu.uw.neuralccg.util.LogLinearHistogram;
 import edu.uw.neuralccg.util.RetrievalStatistics;
 
 public class EvaluationStatistics {
     public static final Logger log = LoggerFactory.getLogger(EvaluationStatistics.class);
 
+    // Sentences are bucketed by length in multiples of LENGTH_BUCKET_SIZE, with a final open-ended bucket.
+    private static final int LENGTH_BUCKET_SIZE = 10;
+    private static final int NUM_LENGTH_BUCKETS = 6;
+
     private final RetrievalStatistics overallStats;
     private final AtomicInteger parsableSentenceCount;
     private final AtomicInteger sentenceCount;
     private final Stopwatch parseTime;
+    private final AtomicLong mergedParseNanos;
     private final AtomicInteger correctlySupertaggedWords;
     private final AtomicInteger totalWords;
 
+    // Per-sentence second moments of the dependency counts, for confidence bounds.
+    private final AtomicLong correctSquared;
+    private final AtomicLong correctTimesGold;
+    private final AtomicLong correctTimesPredicted;
+    private final AtomicLong goldSquared;
+    private final AtomicLong predictedSquared;
+
+    // Per-sentence costs, in nanoseconds and neural network queries. Histograms are only allocated once
+    // aggregate statistics receive a cost, and the statistics of a single sentence keep its cost instead.
+    private final boolean aggregate;
+    private volatile CostHistograms costs;
+    private SentenceCostProto sentenceCost;
+
+    private static class CostHistograms {
+        private final LogLinearHistogram latency;
+        private final List<LogLinearHistogram> latencyByLength;
+        private final LogLinearHistogram neuralQueries;
+        private final List<LogLinearHistogram> neuralQueriesByLength;
+
+        private CostHistograms() {
+            latency = new LogLinearHistogram();
+            latencyByLength = newLengthHistograms();
+            neuralQueries = new LogLinearHistogram();
+            neuralQueriesByLength = newLengthHistograms();
+        }
+
+        private void record(final SentenceCostProto cost) {
+            final int bucket = lengthBucket(cost.getLength());
+            latency.record(cost.getLatency());
+            latencyByLength.get(bucket).record(cost.getLatency());
+            neuralQueries.record(cost.getNeuralQueries());
+            neuralQueriesByLength.get(bucket).record(cost.getNeuralQueries());
+        }
+
+        private void merge(final CostHistograms other) {
+            latency.merge(other.latency);
+            mergeHistograms(latencyByLength, other.latencyByLength);
+            neuralQueries.merge(other.neuralQueries);
+            mergeHistograms(neuralQueriesByLength, other.neuralQueriesByLength);
+        }
+    }
+
     public EvaluationStatistics() {
-        overallStats = new RetrievalStatistics();
+        this(new RetrievalStatistics(), true);
+    }
+
+    // Statistics of a single sentence, which record its cost without allocating histograms.
+    public static EvaluationStatistics forSentence() {
+        return new EvaluationStatistics(new RetrievalStatistics(), false);
+    }
+
+    private EvaluationStatistics(final RetrievalStatistics overallStats, final boolean aggregate) {
+        this.overallStats = overallStats;
         sentenceCount = new AtomicInteger(0);
         parsableSentenceCount = new AtomicInteger(0);
         correctlySupertaggedWords = new AtomicInteger(0);
         totalWords = new AtomicInteger(0);
         parseTime = Stopwatch.createUnstarted();
+        mergedParseNanos = new AtomicLong(0);
+        correctSquared = new AtomicLong(0);
+        correctTimesGold = new AtomicLong(0);
+        correctTimesPredicted = new AtomicLong(0);
+        goldSquared = new AtomicLong(0);
+        predictedSquared = new AtomicLong(0);
+        this.aggregate = aggregate;
+        costs = null;
+        sentenceCost = null;
+    }
+
+    private CostHistograms getCosts() {
+        if (costs == null) {
+            synchronized (this) {
+                if (costs == null) {
+                    costs = new CostHistograms();
+                }
+            }
+        }
+        return costs;
+    }
+
+    private static List<LogLinearHistogram> newLengthHistograms() {
+        return IntStream.range(0, NUM_LENGTH_BUCKETS)
+                .mapToObj(i -> new LogLinearHistogram())
+                .collect(Collectors.toList());
+    }
+
+    private static int lengthBucket(final int sentenceLength) {
+        return Math.min(Math.max(sentenceLength - 1, 0) / LENGTH_BUCKET_SIZE, NUM_LENGTH_BUCKETS - 1);
+    }
+
+    private static String lengthLabel(final int bucket) {
+        final int first = bucket * LENGTH_BUCKET_SIZE + 1;
+        return bucket == NUM_LENGTH_BUCKETS - 1 ? first + "+" : first + "-" + (first + LENGTH_BUCKET_SIZE - 1);
+    }
+
+    private static void mergeHistograms(final List<LogLinearHistogram> histograms, final List<LogLinearHistogram> others) {
+        for (int i = 0; i < histograms.size(); i++) {
+            histograms.get(i).merge(others.get(i));
+        }
+    }
+
+    private static void mergeHistograms(final List<LogLinearHistogram> histograms, final List<HistogramProto> others) {
+        for (int i = 0; i < Math.min(histograms.size(), others.size()); i++) {
+            histograms.get(i).merge(LogLinearHistogram.fromProto(others.get(i)));
+        }
+    }
+
+    private static List<DistributionProto> toDistributions(final List<LogLinearHistogram> histograms, final double scale) {
+        return IntStream.range(0, histograms.size())
+                .mapToObj(i -> histograms.get(i).toDistribution(lengthLabel(i), scale).build())
+                .collect(Collectors.toList());
+    }
+
+    // Parse time is summed, so speeds of merged statistics are per thread.
+    public void merge(final EvaluationStatistics other) {
+        overallStats.merge(other.overallStats);
+        sentenceCount.addAndGet(other.sentenceCount.get());
+        parsableSentenceCount.addAndGet(other.parsableSentenceCount.get());
+        correctlySupertaggedWords.addAndGet(other.correctlySupertaggedWords.get());
+        totalWords.addAndGet(other.totalWords.get());
+        mergedParseNanos.addAndGet(other.getParseNanos());
+        correctSquared.addAndGet(other.correctSquared.get());
+        correctTimesGold.addAndGet(other.correctTimesGold.get());
+        correctTimesPredicted.addAndGet(other.correctTimesPredicted.get());
+        goldSquared.addAndGet(other.goldSquared.get());
+        predictedSquared.addAndGet(other.predictedSquared.get());
+        if (other.costs != null) {
+            Preconditions.checkState(aggregate, "Cannot merge aggregate statistics into a single sentence.");
+            getCosts().merge(other.costs);
+        }
+        if (other.sentenceCost != null) {
+            recordSentenceCost(other.sentenceCost);
+        }
+    }
+
+    public static EvaluationStatistics fromCounts(final EvaluationCountsProto counts) {
+        final EvaluationStatistics stats = new EvaluationStatistics(
+                RetrievalStatistics.fromCounts(counts.getDependencies()), !counts.hasSentenceCost());
+        stats.sentenceCount.set(counts.getSentences());
+        stats.parsableSentenceCount.set(counts.getParsableSentences());
+        stats.correctlySupertaggedWords.set(counts.getCorrectTags());
+        stats.totalWords.set(counts.getTotalTags());
+        stats.mergedParseNanos.set(counts.getParseNanos());
+        stats.correctSquared.set(counts.getCorrectSquared());
+        stats.correctTimesGold.set(counts.getCorrectTimesGold());
+        stats.correctTimesPredicted.set(counts.getCorrectTimesPredicted());
+        stats.goldSquared.set(counts.getGoldSquared());
+        stats.predictedSquared.set(counts.getPredictedSquared());
+        if (counts.hasLatency()) {
+            final CostHistograms costs = stats.getCosts();
+            costs.latency.merge(LogLinearHistogram.fromProto(counts.getLatency()));
+            mergeHistograms(costs.latencyByLength, counts.getLatencyByLengthList());
+            costs.neuralQueries.merge(LogLinearHistogram.fromProto(counts.getNeuralQueries()));
+            mergeHistograms(costs.neuralQueriesByLength, counts.getNeuralQueriesByLengthList());
+        }
+        if (counts.hasSentenceCost()) {
+            stats.recordSentenceCost(counts.getSentenceCost());
+        }
+        return stats;
+    }
+
+    public EvaluationCountsProto toCounts() {
+        final EvaluationCountsProto.Builder counts = EvaluationCountsProto.newBuilder()
+                .setDependencies(overallStats.toCounts())
+                .setSentences(sentenceCount.get())
+                .setParsableSentences(parsableSentenceCount.get())
+                .setCorrectTags(correctlySupertaggedWords.get())
+                .setTotalTags(totalWords.get())
+                .setParseNanos(getParseNanos())
+                .setCorrectSquared(correctSquared.get())
+                .setCorrectTimesGold(correctTimesGold.get())
+                .setCorrectTimesPredicted(correctTimesPredicted.get())
+                .setGoldSquared(goldSquared.get())
+                .setPredictedSquared(predictedSquared.get());
+        if (costs != null) {
+            counts.setLatency(costs.latency.toProto())
+                    .addAllLatencyByLength(costs.latencyByLength.stream().map(LogLinearHistogram::toProto).collect(Collectors.toList()))
+                    .setNeuralQueries(costs.neuralQueries.toProto())
+                    .addAllNeuralQueriesByLength(costs.neuralQueriesByLength.stream().map(LogLinearHistogram::toProto).collect(Collectors.toList()));
+        }
+        if (sentenceCost != null) {
+            counts.setSentenceCost(sentenceCost);
+        }
+        return counts.build();
+    }
+
+    public int getSentenceCount() {
+        return sentenceCount.get();
+    }
+
+    // Standard error of a ratio of per-sentence sums, using the delta method.
+    private double ratioStandardError(final double ratio,
+                                      final long numeratorSquared,
+                                      final long numeratorTimesDenominator,
+                                      final long denominatorSum,
+                                      final long denominatorSquared) {
+        final double n = sentenceCount.get();
+        final double residuals = numeratorSquared - 2 * ratio * numeratorTimesDenominator + ratio * ratio * denominatorSquared;
+        final double denominatorMean = denominatorSum / n;
+        return Math.sqrt(Math.max(residuals, 0) / ((n - 1) * n * denominatorMean * denominatorMean));
+    }
+
+    // Optimistic bound on the F1 that the full corpus could reach, treating the sentences seen so far as a
+    // random sample. Precision and recall are each raised by z standard errors.
+    public double getF1UpperBound(final double z) {
+        if (sentenceCount.get() < 2 || overallStats.getPredicted() == 0 || overallStats.getGold() == 0) {
+            return 1.0;
+        }
+        final double precision = overallStats.getPrecision();
+        final double recall = overallStats.getRecall();
+        final double precisionBound = Math.min(1.0, precision + z * ratioStandardError(precision,
+                correctSquared.get(), correctTimesPredicted.get(), overallStats.getPredicted(), predictedSquared.get()));
+        final double recallBound = Math.min(1.0, recall + z * ratioStandardError(recall,
+                correctSquared.get(), correctTimesGold.get(), overallStats.getGold(), goldSquared.get()));
+        return 2 * precisionBound * recallBound / (precisionBound + recallBound);
+    }
+
+    private long getParseNanos() {
+        return parseTime.elapsed(TimeUnit.NANOSECONDS) + mergedParseNanos.get();
     }
 
     public EvaluationProto.Builder toProto() {
-        return EvaluationProto.newBuilder()
+        final EvaluationProto.Builder proto = EvaluationProto.newBuilder()
                 .setRecall(100.0 * overallStats.getRecall())
                 .setPrecision(100.0 * overallStats.getPrecision())
                 .setF1(100.0 * overallStats.getF1())
                 .setParsable(100.0 * parsableSentenceCount.doubleValue() / sentenceCount.doubleValue())
-                .setSpeed(sentenceCount.get() * 1000.0 / parseTime.elapsed(TimeUnit.MILLISECONDS));
+                .setSpeed(sentenceCount.get() * 1e9 / getParseNanos());
+        if (costs != null && costs.latency.getCount() > 0) {
+            proto.setLatency(costs.latency.toDistribution("all", 1e-6))
+                    .addAllLatencyByLength(toDistributions(costs.latencyByLength, 1e-6))
+                    .setNeuralQueries(costs.neuralQueries.toDistribution("all", 1.0))
+                    .addAllNeuralQueriesByLength(toDistributions(costs.neuralQueriesByLength, 1.0));
+        }
+        return proto;
     }
 
     public void log() {
         overallStats.log();
         log.info("Supertag accuracy: {}%", 100.0 * correctlySupertaggedWords.doubleValue() / totalWords.get());
         log.info(String.format("%.2f%% parsable.", 100.0 * parsableSentenceCount.doubleValue() / sentenceCount.doubleValue()));
-        log.info("Parse speed: {} sentences per second.", sentenceCount.get() * 1000.0 / parseTime.elapsed(TimeUnit.MILLISECONDS));
+        log.info("Parse speed: {} sentences per second.", sentenceCount.get() * 1e9 / getParseNanos());
+        if (costs != null && costs.latency.getCount() > 0) {
+            final LogLinearHistogram latency = costs.latency;
+            final LogLinearHistogram neuralQueries = costs.neuralQueries;
+            log.info(String.format("Latency: p50 %.1fms, p90 %.1fms, p99 %.1fms, max %.1fms.",
+                    latency.getPercentile(50) * 1e-6, latency.getPercentile(90) * 1e-6,
+                    latency.getPercentile(99) * 1e-6, latency.getMax() * 1e-6));
+            log.info("Neural network queries: p50 {}, p90 {}, p99 {}, max {}.",
+                    neuralQueries.getPercentile(50), neuralQueries.getPercentile(90),
+                    neuralQueries.getPercentile(99), neuralQueries.getMax());
+        }
     }
 
     public Stopwatch getParseTime() {
         return parseTime;
     }
 
+    // Time spent on the sentence outside the parse time stopwatch.
+    public void addParseNanos(final long nanos) {
+        mergedParseNanos.addAndGet(nanos);
+    }
+
+    // Records the cost of parsing a single sentence, for the latency and neural query distributions.
+    public void addSentenceCost(final int sentenceLength, final long parseNanos, final long neuralQueryCount) {
+        recordSentenceCost(SentenceCostProto.newBuilder()
+                .setLength(sentenceLength)
+                .setLatency(parseNanos)
+                .setNeuralQueries(neuralQueryCount)
+                .build());
+    }
+
+    private void recordSentenceCost(final SentenceCostProto cost) {
+        if (aggregate) {
+            getCosts().record(cost);
+        } else {
+            Preconditions.checkState(sentenceCost == null, "The statistics of a single sentence only have one cost.");
+            sentenceCost = cost;
+        }
+    }
+
+    private void addSentence(final RetrievalStatistics sentenceStats) {
+        final long correct = sentenceStats.getCorrect();
+        final long gold = sentenceStats.getGold();
+        final long predicted = sentenceStats.getPredicted();
+        overallStats.merge(sentenceStats);
+        correctSquared.addAndGet(correct * correct);
+        correctTimesGold.addAndGet(correct * gold);
+        correctTimesPredicted.addAndGet(correct * predicted);
+        goldSquared.addAndGet(gold * gold);
+        predictedSquared.addAndGet(predicted * predicted);
+    }
+
     public void updateStats(final Set<ResolvedDependency> goldDependencies,
                             final List<Category> goldCategories,
                             final List<Util.Scored<SyntaxTreeNode>> predictedParses,
@@ -67,12 +345,12 @@ public class EvaluationStatistics {
         if (predictedParses != null) {
             parsableSentenceCount.incrementAndGet();
         } else {
-            evaluator.evaluate(goldDependencies, null, overallStats);
+            addSentence(evaluator.evaluate(goldDependencies, null));
             return;
         }
 
         final SyntaxTreeNode topParse = predictedParses.get(0).getObject();
-        evaluator.evaluate(goldDependencies, topParse, overallStats);
+        addSentence(evaluator.evaluate(goldDependencies, topParse));
         final int numCorrect = (int) CollectionUtil.zip(
                 topParse.getLeaves().stream().map(SyntaxTreeNode::getCategory),
                 goldCategories.stream(), Object::equals).filter(Boolean::booleanValue).count();
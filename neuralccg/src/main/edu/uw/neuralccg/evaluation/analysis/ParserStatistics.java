@@ -7,12 +7,14 @@ import org.slf4j.LoggerFactory;
 
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import edu.uw.easysrl.main.InputReader.InputWord;
 import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode;
 import edu.uw.easysrl.syntax.parser.Agenda;
 import edu.uw.easysrl.syntax.parser.ParserListener;
 import edu.uw.easysrl.util.Util.Scored;
+import edu.uw.neuralccg.AnalysisProto.ParseCountsProto;
 import edu.uw.neuralccg.AnalysisProto.ParseStatsProto;
 
 public class ParserStatistics implements ParserListener {
@@ -25,6 +27,11 @@ public class ParserStatistics implements ParserListener {
     private AtomicInteger agendaCount;
     private AtomicInteger chartCount;
     private AtomicInteger goldParsesFound;
+    private AtomicInteger violationChecks;
+    private AtomicInteger violationCount;
+    private AtomicInteger updateCount;
+    private AtomicLong updateNanos;
+    private AtomicLong pruningCount;
 
     public ParserStatistics() {
         clear();
@@ -38,6 +45,11 @@ public class ParserStatistics implements ParserListener {
         this.neuralScore = new AtomicDouble(0);
         this.neuralCount = new AtomicInteger(0);
         this.goldParsesFound = new AtomicInteger(0);
+        this.violationChecks = new AtomicInteger(0);
+        this.violationCount = new AtomicInteger(0);
+        this.updateCount = new AtomicInteger(0);
+        this.updateNanos = new AtomicLong(0);
+        this.pruningCount = new AtomicLong(0);
     }
 
     public void log() {
@@ -48,6 +60,9 @@ public class ParserStatistics implements ParserListener {
         log.info("Neural network queries: {}%", 100.0 * neuralCount.doubleValue() / (agendaCount.doubleValue() + chartCount.doubleValue()));
         log.info("Mean steps until mistake: {}", stepsUntilMistake.doubleValue() / sentenceCount.get());
         log.info("Gold parses found: {}%", 100.0 * goldParsesFound.doubleValue() / sentenceCount.get());
+        log.info("Violations: {}%", 100.0 * maybeDivide(violationCount.get(), violationChecks.get()));
+        log.info("Mean update latency: {} ms", maybeDivide(updateNanos.get() / 1e6, updateCount.get()));
+        log.info("Mean pruned chart entries: {}", maybeDivide(pruningCount.doubleValue(), sentenceCount.get()));
     }
 
     private static double maybeDivide(final double x, final double y) {
@@ -68,11 +83,73 @@ public class ParserStatistics implements ParserListener {
                 .build();
     }
 
+    public ParseCountsProto toCounts() {
+        return ParseCountsProto.newBuilder()
+                .setSentences(sentenceCount.get())
+                .setNeuralScore(neuralScore.get())
+                .setNeuralCount(neuralCount.get())
+                .setAgendaCount(agendaCount.get())
+                .setChartCount(chartCount.get())
+                .setStepsUntilMistake(stepsUntilMistake.get())
+                .setGoldParsesFound(goldParsesFound.get())
+                .build();
+    }
+
+    public void merge(final ParseCountsProto counts) {
+        sentenceCount.addAndGet(counts.getSentences());
+        neuralScore.addAndGet(counts.getNeuralScore());
+        neuralCount.addAndGet(counts.getNeuralCount());
+        agendaCount.addAndGet(counts.getAgendaCount());
+        chartCount.addAndGet(counts.getChartCount());
+        stepsUntilMistake.addAndGet(counts.getStepsUntilMistake());
+        goldParsesFound.addAndGet(counts.getGoldParsesFound());
+    }
+
     public void addNeuralScore(double score) {
         neuralScore.addAndGet(score);
         neuralCount.incrementAndGet();
     }
 
+    public void addViolation(final boolean isViolated) {
+        violationChecks.incrementAndGet();
+        if (isViolated) {
+            violationCount.incrementAndGet();
+        }
+    }
+
+    public void addUpdateTime(final long nanos) {
+        updateNanos.addAndGet(nanos);
+        updateCount.incrementAndGet();
+    }
+
+    public void addPruning() {
+        pruningCount.incrementAndGet();
+    }
+
+    public int getSentenceCount() {
+        return sentenceCount.get();
+    }
+
+    public int getNeuralCount() {
+        return neuralCount.get();
+    }
+
+    public int getViolationChecks() {
+        return violationChecks.get();
+    }
+
+    public int getViolationCount() {
+        return violationCount.get();
+    }
+
+    public int getUpdateCount() {
+        return updateCount.get();
+    }
+
+    public long getUpdateNanos() {
+        return updateNanos.get();
+    }
+
     public void addStepsUntilMistake(int steps) {
         stepsUntilMistake.addAndGet(steps);
     }
@@ -0,0 +1,129 @@
+package edu.uw.neuralccg.grammar;
+
+import com.google.common.collect.ImmutableList;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import edu.uw.easysrl.syntax.grammar.Category;
+import edu.uw.easysrl.syntax.grammar.Combinator;
+import edu.uw.easysrl.syntax.grammar.Combinator.RuleProduction;
+import edu.uw.easysrl.syntax.grammar.SeenRules;
+import edu.uw.easysrl.syntax.tagger.TaggerEmbeddings;
+import edu.uw.neuralccg.util.SyntaxUtil;
+
+// Binary rule productions of every seen pair of possible categories, computed once so that parsers do not
+// try the combinators again whenever two cells meet. Productions whose rule type NormalFormCustom never
+// allows are dropped.
+//
+// Categories are numbered densely, and each pair is stored under leftIndex * size + rightIndex in an
+// open-addressing table of primitive longs. Pairs outside the table, such as unseen pairs when unseen
+// rules are allowed, are left to the parser.
+public class BinaryRuleTable {
+    private static final long EMPTY = -1;
+
+    private final int[] categoryIndexes;
+    private final int numCategories;
+    private final long[] keys;
+    private final List<RuleProduction>[] productions;
+    private final int size;
+
+    @SuppressWarnings("unchecked")
+    public BinaryRuleTable(final Collection<Category> categories,
+                           final Collection<Combinator> combinators,
+                           final SeenRules seenRules) {
+        final List<Category> inventory = new ArrayList<>(categories);
+        this.numCategories = inventory.size();
+        this.categoryIndexes = new int[inventory.stream().mapToInt(Category::getID).max().orElse(-1) + 1];
+        Arrays.fill(categoryIndexes, -1);
+        for (int i = 0; i < inventory.size(); i++) {
+            categoryIndexes[inventory.get(i).getID()] = i;
+        }
+
+        final List<Entry<Long, List<RuleProduction>>> entries = IntStream.range(0, numCategories)
+                .parallel()
+                .boxed()
+                .flatMap(left -> IntStream.range(0, numCategories)
+                        .filter(right -> seenRules.isSeen(inventory.get(left), inventory.get(right)))
+                        .mapToObj(right -> new SimpleImmutableEntry<>(
+                                (long) left * numCategories + right,
+                                productions(inventory.get(left), inventory.get(right), combinators))))
+                .collect(Collectors.toList());
+
+        int capacity = 16;
+        while (capacity < 2 * entries.size()) {
+            capacity <<= 1;
+        }
+        this.keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        this.productions = new List[capacity];
+        for (final Entry<Long, List<RuleProduction>> entry : entries) {
+            final int index = indexOf(entry.getKey());
+            keys[index] = entry.getKey();
+            productions[index] = entry.getValue();
+        }
+        this.size = entries.size();
+    }
+
+    public static BinaryRuleTable load(final File modelDir) {
+        try {
+            final Collection<Category> lexicalCategories = TaggerEmbeddings.loadCategories(new File(modelDir, "categories"));
+            return new BinaryRuleTable(
+                    SyntaxUtil.getPossibleCategories(modelDir),
+                    SyntaxUtil.loadCombinators(modelDir),
+                    new SeenRules(new File(modelDir, "seenRules"), lexicalCategories));
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static List<RuleProduction> productions(final Category left,
+                                                    final Category right,
+                                                    final Collection<Combinator> combinators) {
+        return ImmutableList.copyOf(Combinator.getRules(left, right, combinators).stream()
+                .filter(production -> NormalFormCustom.isPossible(production.getRuleType()))
+                .iterator());
+    }
+
+    private static int hash(final long value) {
+        final long mixed = value * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+
+    private int indexOf(final long key) {
+        final int mask = keys.length - 1;
+        int index = hash(key) & mask;
+        while (keys[index] != EMPTY && keys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private int categoryIndex(final Category category) {
+        final int id = category.getID();
+        return id < categoryIndexes.length ? categoryIndexes[id] : -1;
+    }
+
+    // Null if the pair is not in the table.
+    public List<RuleProduction> get(final Category left, final Category right) {
+        final int leftIndex = categoryIndex(left);
+        final int rightIndex = categoryIndex(right);
+        if (leftIndex < 0 || rightIndex < 0) {
+            return null;
+        }
+        final int index = indexOf((long) leftIndex * numCategories + rightIndex);
+        return keys[index] == EMPTY ? null : productions[index];
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -1,15 +1,67 @@
 package edu.uw.neuralccg.grammar;
 
+import java.util.BitSet;
+
 import edu.uw.easysrl.syntax.grammar.Category;
 import edu.uw.easysrl.syntax.grammar.Combinator.RuleClass;
 import edu.uw.easysrl.syntax.grammar.Combinator.RuleType;
 import edu.uw.easysrl.syntax.grammar.NormalForm;
 
 public class NormalFormCustom extends NormalForm{
+    private static final RuleClass[] RULE_CLASSES = RuleClass.values();
+    private static final RuleType[] RULE_TYPES = RuleType.values();
+
+    // Whether a combination is allowed by the constraints that only depend on the rule classes, the rule
+    // type and whether it is a prefix of the sentence, and whether it additionally needs the scope check
+    // on its categories. Both are derived from the constraints themselves, so they cannot drift apart.
+    private static final BitSet allowed = new BitSet();
+    private static final BitSet checkScope = new BitSet();
+    private static final BitSet possibleRuleTypes = new BitSet();
+
+    static {
+        for (final RuleClass leftRuleClass : RULE_CLASSES) {
+            for (final RuleClass rightRuleClass : RULE_CLASSES) {
+                for (final RuleType ruleType : RULE_TYPES) {
+                    for (final boolean isPrefixOfSentence : new boolean[]{false, true}) {
+                        final int index = index(leftRuleClass, rightRuleClass, ruleType, isPrefixOfSentence);
+                        final boolean withDistinctResult = isOkUncompiled(leftRuleClass, rightRuleClass, ruleType,
+                                Category.N, Category.N, Category.NP, isPrefixOfSentence);
+                        final boolean withSameResult = isOkUncompiled(leftRuleClass, rightRuleClass, ruleType,
+                                Category.N, Category.N, Category.N, isPrefixOfSentence);
+                        allowed.set(index, withDistinctResult);
+                        checkScope.set(index, withDistinctResult && !withSameResult);
+                        if (withDistinctResult) {
+                            possibleRuleTypes.set(ruleType.ordinal());
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static int index(final RuleClass leftRuleClass, final RuleClass rightRuleClass, final RuleType ruleType,
+                             final boolean isPrefixOfSentence) {
+        return ((leftRuleClass.ordinal() * RULE_CLASSES.length + rightRuleClass.ordinal()) * RULE_TYPES.length
+                + ruleType.ordinal()) * 2 + (isPrefixOfSentence ? 1 : 0);
+    }
+
+    // Whether any rule classes allow the rule type, ignoring the scope check.
+    public static boolean isPossible(final RuleType ruleType) {
+        return possibleRuleTypes.get(ruleType.ordinal());
+    }
+
     @Override
     public boolean isOk(final RuleClass leftRuleClass, final RuleClass rightRuleClass, final RuleType ruleType,
                                final Category leftCategory, final Category rightCategory,
                                final Category result, final boolean isPrefixOfSentence) {
+        final int index = index(leftRuleClass, rightRuleClass, ruleType, isPrefixOfSentence);
+        return allowed.get(index) && !(checkScope.get(index) && rightCategory.equals(result));
+    }
+
+    // The constraints as written, which are only evaluated to build the tables.
+    static boolean isOkUncompiled(final RuleClass leftRuleClass, final RuleClass rightRuleClass, final RuleType ruleType,
+                                  final Category leftCategory, final Category rightCategory,
+                                  final Category result, final boolean isPrefixOfSentence) {
         if ((leftRuleClass == RuleClass.FC || leftRuleClass == RuleClass.GFC)
                 && (ruleType == RuleType.FA || ruleType == RuleType.FC || ruleType == RuleType.GFC)) {
             // Eisner normal form constraint.
@@ -0,0 +1,153 @@
+package edu.uw.neuralccg.model;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.uw.easysrl.main.InputReader.InputToParser;
+import edu.uw.easysrl.main.InputReader.InputWord;
+import edu.uw.easysrl.syntax.grammar.Category;
+import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode;
+import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode.SyntaxTreeNodeLeaf;
+import edu.uw.easysrl.syntax.model.AgendaItem;
+import edu.uw.easysrl.syntax.model.Model;
+import edu.uw.easysrl.syntax.parser.AbstractParser;
+import edu.uw.easysrl.syntax.parser.Agenda;
+import edu.uw.neuralccg.SyntaxProto.ChartProto;
+import edu.uw.neuralccg.SyntaxProto.ParseProto;
+import edu.uw.neuralccg.SyntaxProto.RuleTypeProto;
+import edu.uw.neuralccg.model.OracleModel.GoldInputToParser;
+import edu.uw.neuralccg.util.SyntaxUtil;
+
+// Model that only allows the steps of a derivation encoded by SyntaxUtil.toChart, so that parsing
+// rebuilds that derivation with the grammar, including its dependencies.
+public class DerivationModel extends Model {
+    private static final double INCORRECT_PENALTY = Double.POSITIVE_INFINITY;
+
+    private final List<Category> leafCategories;
+    private final Map<Integer, Integer> leafIndexes;
+    private final Map<List<Object>, Integer> stepIndexes;
+    private final Map<SyntaxTreeNode, Integer> chartIndexes;
+
+    public DerivationModel(final List<Category> leafCategories, final ChartProto derivation) {
+        super(leafCategories.size());
+        this.leafCategories = leafCategories;
+        this.leafIndexes = new HashMap<>();
+        this.stepIndexes = new HashMap<>();
+        this.chartIndexes = new IdentityHashMap<>();
+        for (int i = 0; i < derivation.getParseCount(); i++) {
+            final ParseProto parse = derivation.getParse(i);
+            if (parse.getChildCount() == 0) {
+                leafIndexes.put(parse.getStart(), i);
+            } else {
+                stepIndexes.put(Arrays.asList(
+                        parse.getChild(0),
+                        parse.getChildCount() > 1 ? parse.getChild(1) : -1,
+                        parse.getCategory(),
+                        parse.getRuleType()), i);
+            }
+        }
+    }
+
+    // The chart index of the step, if the children are steps of the derivation and the node is too.
+    private Integer getStepIndex(final SyntaxTreeNode node, final AgendaItem... children) {
+        final Integer left = chartIndexes.get(children[0].getParse());
+        final Integer right = children.length > 1 ? chartIndexes.get(children[1].getParse()) : Integer.valueOf(-1);
+        if (left == null || right == null) {
+            return null;
+        }
+        final Integer index = stepIndexes.get(Arrays.asList(
+                left,
+                right,
+                SyntaxUtil.toProto(node.getCategory()).build(),
+                RuleTypeProto.valueOf(node.getRuleType().toString())));
+        if (index != null) {
+            chartIndexes.put(node, index);
+        }
+        return index;
+    }
+
+    @Override
+    public void buildAgenda(final Agenda agenda, final List<InputWord> words) {
+        Preconditions.checkArgument(leafCategories.size() == words.size());
+        for (int i = 0; i < words.size(); i++) {
+            final Integer index = leafIndexes.get(i);
+            if (index != null) {
+                final InputWord word = words.get(i);
+                final SyntaxTreeNode node = new SyntaxTreeNodeLeaf(word.word, word.pos, word.ner,
+                        leafCategories.get(i), i, true);
+                chartIndexes.put(node, index);
+                agenda.add(new AgendaItem(node, 0, 0, i, 1, true));
+            }
+        }
+    }
+
+    @Override
+    public AgendaItem combineNodes(final AgendaItem leftChild, final AgendaItem rightChild, final SyntaxTreeNode node) {
+        final double score = leftChild.getInsideScore()
+                + rightChild.getInsideScore()
+                - (getStepIndex(node, leftChild, rightChild) == null ? INCORRECT_PENALTY : 0);
+        final int length = leftChild.getSpanLength() + rightChild.getSpanLength();
+        return new AgendaItem(node, score, 0, leftChild.getStartOfSpan(), length, true);
+    }
+
+    @Override
+    public AgendaItem unary(final AgendaItem child, final SyntaxTreeNode node, final AbstractParser.UnaryRule rule) {
+        final double score = child.getInsideScore()
+                - (getStepIndex(node, child) == null ? INCORRECT_PENALTY : 0);
+        return new AgendaItem(node, score, 0, child.getStartOfSpan(), child.getSpanLength(), true);
+    }
+
+    @Override
+    public double getUpperBoundForWord(int index) {
+        return 0;
+    }
+
+    public static class DerivationInput extends InputToParser {
+        private static final long serialVersionUID = 1L;
+
+        private final ChartProto derivation;
+
+        public DerivationInput(final List<InputWord> words,
+                               final List<Category> leafCategories,
+                               final ChartProto derivation) {
+            super(words, leafCategories, GoldInputToParser.getGoldSupertags(leafCategories), true);
+            this.derivation = derivation;
+        }
+    }
+
+    public static class DerivationModelFactory extends ModelFactory {
+        private final Collection<Category> lexicalCategories;
+
+        public DerivationModelFactory(final Collection<Category> lexicalCategories) {
+            super();
+            this.lexicalCategories = lexicalCategories;
+        }
+
+        @Override
+        public DerivationModel make(final InputToParser input) {
+            Preconditions.checkArgument(input instanceof DerivationInput);
+            return new DerivationModel(input.getGoldCategories(), ((DerivationInput) input).derivation);
+        }
+
+        @Override
+        public Collection<Category> getLexicalCategories() {
+            return lexicalCategories;
+        }
+
+        @Override
+        public boolean isUsingDependencies() {
+            return true;
+        }
+
+        @Override
+        public boolean isUsingDynamicProgram() {
+            return false;
+        }
+    }
+}
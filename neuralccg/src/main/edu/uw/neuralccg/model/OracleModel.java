@@ -107,12 +107,10 @@ public class OracleModel extends Model {
         private SyntaxTreeNode oracleParse;
 
         public GoldInputToParser(final DependencyParse goldParse) {
-            this(goldParse, goldParse.getLeaves()
+            this(goldParse, getGoldSupertags(goldParse.getLeaves()
                     .stream()
                     .map(SyntaxTreeNode::getCategory)
-                    .map(c -> new Tagger.ScoredCategory(c, 0))
-                    .map(Collections::singletonList)
-                    .collect(Collectors.toList()));
+                    .collect(Collectors.toList())));
             this.oracleParse = null;
         }
 
@@ -139,6 +137,24 @@ public class OracleModel extends Model {
             this.oracleParse = other.oracleParse;
         }
 
+        public GoldInputToParser(final List<InputWord> words,
+                                 final List<Category> goldCategories,
+                                 final List<List<ScoredCategory>> inputSupertags,
+                                 final Set<ResolvedDependency> goldDependencies,
+                                 final SyntaxTreeNode oracleParse) {
+            super(words, goldCategories, inputSupertags, inputSupertags != null);
+            this.goldDependencies = goldDependencies;
+            this.oracleParse = oracleParse;
+        }
+
+        // Supertags that only allow the gold category of each word.
+        public static List<List<ScoredCategory>> getGoldSupertags(final List<Category> goldCategories) {
+            return goldCategories.stream()
+                    .map(c -> new Tagger.ScoredCategory(c, 0))
+                    .map(Collections::singletonList)
+                    .collect(Collectors.toList());
+        }
+
         public Set<ResolvedDependency> getGoldDependencies() {
             return goldDependencies;
         }
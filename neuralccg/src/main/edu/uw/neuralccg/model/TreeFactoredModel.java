@@ -82,6 +82,12 @@ public class TreeFactoredModel extends TrainableModel {
 
     private static native void applyUpdate(byte[] update);
 
+    private static native long getNativeMemoryUsage();
+
+    private static native void saveOptimizerState(String statePath);
+
+    private static native void loadOptimizerState(String statePath);
+
     private final List<List<Tagger.ScoredCategory>> tagsForWords;
     private final Map<SyntaxTreeNode, Integer> chartIndexes;
     private final TreeFactoredModelFactory factory;
@@ -160,7 +166,9 @@ public class TreeFactoredModel extends TrainableModel {
         incorrect.forEach(item -> builder.addIncorrect(chartIndexes.get(item.getParse())));
         correct.forEach(item -> builder.addCorrect(chartIndexes.get(item.getParse())));
         if (builder.getIncorrectCount() > 0 && builder.getCorrectCount() > 0) {
+            final long startTime = System.nanoTime();
             applyUpdate(builder.build().toByteArray());
+            factory.stats.ifPresent(s -> s.addUpdateTime(System.nanoTime() - startTime));
         }
     }
 
@@ -323,6 +331,20 @@ public class TreeFactoredModel extends TrainableModel {
             Preconditions.checkState(hasInitializedCNN);
         }
 
+        private TreeFactoredModelFactory(final TreeFactoredModelFactory other,
+                                         final boolean useLazyAgenda,
+                                         final Optional<ParserStatistics> stats) {
+            this.tagger = other.tagger;
+            this.lexicalCategories = other.lexicalCategories;
+            this.lossScale = other.lossScale;
+            this.keepGates = other.keepGates;
+            this.useLazyAgenda = useLazyAgenda;
+            this.maxNeuralCount = other.maxNeuralCount;
+            this.evaluator = other.evaluator;
+            this.stats = stats;
+            this.neuralCount = new AtomicInteger(0);
+        }
+
         public TreeFactoredModelFactory(final Optional<Tagger> tagger,
                                         final Collection<Category> lexicalCategories,
                                         final Config arguments,
@@ -355,6 +377,11 @@ public class TreeFactoredModel extends TrainableModel {
                     .ifPresent(TreeFactoredModel::initializeTrainer);
         }
 
+        // Shares the scorer that is already loaded, so that several decoders can use the same checkpoint.
+        public TreeFactoredModelFactory share(final boolean useLazyAgenda, final Optional<ParserStatistics> stats) {
+            return new TreeFactoredModelFactory(this, useLazyAgenda, stats);
+        }
+
         public TreeFactoredModel getLastModel() {
             return lastModel;
         }
@@ -363,6 +390,20 @@ public class TreeFactoredModel extends TrainableModel {
             TreeFactoredModel.saveCheckpoint(checkpointPath.getAbsolutePath());
         }
 
+        // Includes the state of the native random number generator.
+        public void saveOptimizerState(File statePath) {
+            TreeFactoredModel.saveOptimizerState(statePath.getAbsolutePath());
+        }
+
+        public void loadOptimizerState(File statePath) {
+            TreeFactoredModel.loadOptimizerState(statePath.getAbsolutePath());
+        }
+
+        // Bytes currently allocated from the native memory pools.
+        public static long getNativeMemoryUsage() {
+            return TreeFactoredModel.getNativeMemoryUsage();
+        }
+
         @Override
         public TreeFactoredModel make(final InputToParser input) {
             lastModel = new TreeFactoredModel(
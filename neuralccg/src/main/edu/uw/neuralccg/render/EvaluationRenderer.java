@@ -17,8 +17,11 @@ import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import edu.uw.neuralccg.AnalysisProto.DistributionProto;
 import edu.uw.neuralccg.AnalysisProto.EvaluationEvent;
 import edu.uw.neuralccg.AnalysisProto.EvaluationProto;
+import edu.uw.neuralccg.TableProto.Row;
+import edu.uw.neuralccg.TableProto.Table;
 import edu.uw.neuralccg.util.DataUtil;
 import com.github.kentonl.pipegraph.util.C3Util;
 import com.github.kentonl.pipegraph.util.ConfigUtil;
@@ -114,11 +117,57 @@ public class EvaluationRenderer implements IResourceRenderer<EvaluationEvent> {
         return maxF1Events;
     }
 
+    // Latency and neural query percentiles by sentence length, for the latest evaluation of a run.
+    private static Node renderLengthBreakdown(final EvaluationEvent event, final Config arguments) {
+        final EvaluationProto eval = event.getEval();
+        final Table.Builder table = Table.newBuilder();
+        table.addRow(Row.newBuilder().addCell("Length").addCell("Sentences")
+                .addCell("p50 ms").addCell("p90 ms").addCell("p99 ms").addCell("Max ms")
+                .addCell("p50 queries").addCell("p99 queries"));
+        for (int i = 0; i < eval.getLatencyByLengthCount(); i++) {
+            final DistributionProto latency = eval.getLatencyByLength(i);
+            final DistributionProto queries = eval.getNeuralQueriesByLength(i);
+            table.addRow(Row.newBuilder().addCell(latency.getLabel())
+                    .addCell(String.format("%d", latency.getCount()))
+                    .addCell(String.format("%.1f", latency.getP50()))
+                    .addCell(String.format("%.1f", latency.getP90()))
+                    .addCell(String.format("%.1f", latency.getP99()))
+                    .addCell(String.format("%.1f", latency.getMax()))
+                    .addCell(String.format("%.0f", queries.getP50()))
+                    .addCell(String.format("%.0f", queries.getP99())));
+        }
+        return new Div()
+                .appendChild(new H4().appendText(event.getName() + " at " + event.getSteps() + " steps"))
+                .appendChild(new TableRenderer().render(table.build(), arguments));
+    }
+
     public Node renderStream(final Stream<EvaluationEvent> evaluationEvents, final Config arguments) {
         final Div root = new Div();
 
-        final Map<String, List<EvaluationEvent>> groupedEvents = evaluationEvents
+        // Training events only report training statistics and are rendered separately.
+        // Partial evaluations stopped early on a subset of the inputs, so they are not comparable.
+        final Map<Boolean, List<EvaluationEvent>> partitionedEvents = evaluationEvents
+                .filter(event -> !event.getPartial())
+                .collect(Collectors.partitioningBy(EvaluationEvent::hasTrainStats));
+
+        final Map<String, List<EvaluationEvent>> trainEvents = partitionedEvents.get(true).stream()
+                .collect(Collectors.groupingBy(EvaluationEvent::getName));
+        trainEvents.values().forEach(events -> Collections.sort(events, Comparator.comparing(EvaluationEvent::getSteps)));
+        if (!trainEvents.isEmpty()) {
+            root.appendChild(new H2().appendText("Training Statistics"));
+            root.appendChild(renderGroupedEvents(trainEvents, "Steps", "Train F1", EvaluationEvent::getSteps, e -> e.getTrainStats().getF1()));
+            root.appendChild(renderGroupedEvents(trainEvents, "Steps", "Sentences per second", EvaluationEvent::getSteps, e -> e.getTrainStats().getSentencesPerSecond()));
+            root.appendChild(renderGroupedEvents(trainEvents, "Steps", "Neural queries per second", EvaluationEvent::getSteps, e -> e.getTrainStats().getNeuralQueriesPerSecond()));
+            root.appendChild(renderGroupedEvents(trainEvents, "Steps", "Mean update latency (ms)", EvaluationEvent::getSteps, e -> e.getTrainStats().getUpdateLatency()));
+            root.appendChild(renderGroupedEvents(trainEvents, "Steps", "% violated chart insertions", EvaluationEvent::getSteps, e -> e.getTrainStats().getViolationRate()));
+            root.appendChild(renderGroupedEvents(trainEvents, "Steps", "Native memory (MB)", EvaluationEvent::getSteps, e -> e.getTrainStats().getNativeMemory() / (1024.0 * 1024.0)));
+        }
+
+        final Map<String, List<EvaluationEvent>> groupedEvents = partitionedEvents.get(false).stream()
                 .collect(Collectors.groupingBy(EvaluationEvent::getName));
+        if (groupedEvents.isEmpty()) {
+            return root;
+        }
         groupedEvents.values().forEach(events -> Collections.sort(events, Comparator.comparing(EvaluationEvent::getSteps)));
         root.appendChild(new H2().appendText("Evaluations"));
         root.appendChild(renderGroupedEvents(groupedEvents, "Steps", "Dev F1 ", EvaluationEvent::getSteps, e -> e.getEval().getF1()));
@@ -132,6 +181,21 @@ public class EvaluationRenderer implements IResourceRenderer<EvaluationEvent> {
         final Map<String, List<EvaluationEvent>> maxedBackoffEvents = DataUtil.mapToMap(groupedEvents, e -> getMaxF1Events(e, EvaluationEvent::getEvalBackoff));
         root.appendChild(renderGroupedEvents(maxedBackoffEvents, "Steps", "Max Dev F1 with backoff", EvaluationEvent::getSteps, e -> e.getEvalBackoff().getF1()));
 
+        // Latency distributions are only reported by evaluations that record per-sentence costs.
+        final Map<String, List<EvaluationEvent>> latencyEvents = groupedEvents.entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, nameAndEvents -> nameAndEvents.getValue().stream()
+                        .filter(e -> e.getEval().hasLatency())
+                        .collect(Collectors.toList())));
+        latencyEvents.values().removeIf(List::isEmpty);
+        if (!latencyEvents.isEmpty()) {
+            root.appendChild(new H2().appendText("Latency"));
+            root.appendChild(renderGroupedEvents(latencyEvents, "Steps", "p50 latency (ms)", EvaluationEvent::getSteps, e -> e.getEval().getLatency().getP50()));
+            root.appendChild(renderGroupedEvents(latencyEvents, "Steps", "p90 latency (ms)", EvaluationEvent::getSteps, e -> e.getEval().getLatency().getP90()));
+            root.appendChild(renderGroupedEvents(latencyEvents, "Steps", "p99 latency (ms)", EvaluationEvent::getSteps, e -> e.getEval().getLatency().getP99()));
+            root.appendChild(renderGroupedEvents(latencyEvents, "Steps", "p99 neural queries", EvaluationEvent::getSteps, e -> e.getEval().getNeuralQueries().getP99()));
+            latencyEvents.values().forEach(events -> root.appendChild(renderLengthBreakdown(events.get(events.size() - 1), arguments)));
+        }
+
         root.appendChild(new H2().appendText("Parser Statistics"));
         root.appendChild(renderGroupedEvents(groupedEvents, "Steps", "Mean neural score ", EvaluationEvent::getSteps, e -> e.getParseStats().getNeuralScore()));
         root.appendChild(renderGroupedEvents(groupedEvents, "Steps", "Mean neural queries ", EvaluationEvent::getSteps, e -> e.getParseStats().getNeuralQueries()));
@@ -6,19 +6,19 @@ import java.util.stream.Stream;
 
 import edu.uw.easysrl.corpora.CCGBankDependencies;
 import edu.uw.easysrl.corpora.CCGBankDependencies.Partition;
-import edu.uw.neuralccg.SerializationProto.Serialized;
-import edu.uw.neuralccg.util.SerializationUtil;
+import edu.uw.neuralccg.CorpusProto.GoldSentenceProto;
+import edu.uw.neuralccg.util.CorpusUtil;
 import com.github.kentonl.pipegraph.core.Stage;
 import com.github.kentonl.pipegraph.task.ITask;
 
-public class CCGBankReaderTask implements ITask<Serialized> {
+public class CCGBankReaderTask implements ITask<GoldSentenceProto> {
 
-	public static Stream<Serialized> parseStream(File ccgbankDir, Partition partition) {
+	public static Stream<GoldSentenceProto> parseStream(File ccgbankDir, Partition partition) {
 		try {
 			return CCGBankDependencies
 					.loadCorpus(ccgbankDir, partition)
 					.stream()
-					.map(parse -> SerializationUtil.serialize(parse));
+					.map(CorpusUtil::toProto);
 		} catch (final IOException e) {
 			throw new RuntimeException(e);
 		}
@@ -30,7 +30,7 @@ public class CCGBankReaderTask implements ITask<Serialized> {
 	}
 
 	@Override
-	public Stream<Serialized> run(Stage stage) {
+	public Stream<GoldSentenceProto> run(Stage stage) {
 		return parseStream(
 				new File(stage.getArguments().getString("ccgbank_dir")),
 				Partition.valueOf(stage.getArguments().getString("partition").toUpperCase()));
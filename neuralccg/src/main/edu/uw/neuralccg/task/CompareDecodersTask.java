@@ -1,21 +1,33 @@
 package edu.uw.neuralccg.task;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 
 import com.github.kentonl.pipegraph.core.Stage;
 import com.github.kentonl.pipegraph.task.ITask;
+import com.github.kentonl.pipegraph.util.tuple.Pair;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import edu.uw.easysrl.main.InputReader.InputToParser;
 import edu.uw.easysrl.main.InputReader.InputWord;
 import edu.uw.easysrl.syntax.grammar.Category;
 import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode;
@@ -29,146 +41,156 @@ import edu.uw.easysrl.syntax.parser.ParserBeamSearch;
 import edu.uw.easysrl.syntax.parser.ParserBuilder;
 import edu.uw.easysrl.syntax.parser.ParserListener;
 import edu.uw.easysrl.syntax.parser.ParserReranking;
-import edu.uw.easysrl.syntax.tagger.TaggerEmbeddings;
 import edu.uw.easysrl.util.Util.Scored;
 import edu.uw.neuralccg.AnalysisProto.EvaluationEvent;
 import edu.uw.neuralccg.SerializationProto.Serialized;
 import edu.uw.neuralccg.TrainProto.RunConfig;
 import edu.uw.neuralccg.evaluation.DependencyEvaluator;
+import edu.uw.neuralccg.evaluation.analysis.CheckpointStatistics;
+import edu.uw.neuralccg.evaluation.analysis.EvaluationStatistics;
 import edu.uw.neuralccg.evaluation.analysis.ParserStatistics;
+import edu.uw.neuralccg.grammar.BinaryRuleTable;
 import edu.uw.neuralccg.model.OracleModel.GoldInputToParser;
 import edu.uw.neuralccg.model.TreeFactoredModel.TreeFactoredModelFactory;
+import edu.uw.neuralccg.util.ArtifactCache;
 import edu.uw.neuralccg.util.CellUtil;
 import edu.uw.neuralccg.util.EasySRLUtil;
 import edu.uw.neuralccg.util.ProgressLogger;
-import edu.uw.neuralccg.util.SerializationUtil;
 
+// Compares decoders for the same checkpoint on identical inputs. The checkpoint is loaded once and every
+// sentence is decoded by all decoders before moving on to the next. The supertag-factored n-best lists for
+// reranking are produced once per sentence by background threads, and shared by both rerankers. Each
+// reranker is charged the time to generate the list, so that speeds are comparable across decoders.
 public class CompareDecodersTask implements ITask<EvaluationEvent> {
     public static final Logger log = LoggerFactory.getLogger(CompareDecodersTask.class);
 
+    private static final int MAX_NBEST = 100;
+
     File modelDir;
     DependencyEvaluator evaluator;
     File checkpointPath;
     List<Category> categories;
-    ParserBuilder<?> backoffParserBuilder;
+    Optional<BinaryRuleTable> ruleTable;
     List<GoldInputToParser> devInputs;
     Stage stage;
 
+    // The n-best list for the sentence currently being decoded.
+    final AtomicReference<Pair<InputToParser, List<Scored<SyntaxTreeNode>>>> currentNbest = new AtomicReference<>();
+
+    private static class Decoder {
+        private final String name;
+        private final Parser parser;
+        private final Parser backoffParser;
+        private final CheckpointStatistics checkpointStats;
+        // Rerankers are charged for generating their n-best lists.
+        private final boolean reranksNbest;
+
+        private Decoder(final String name,
+                        final Parser parser,
+                        final Parser backoffParser,
+                        final CheckpointStatistics checkpointStats,
+                        final boolean reranksNbest) {
+            this.name = name;
+            this.parser = parser;
+            this.backoffParser = backoffParser;
+            this.checkpointStats = checkpointStats;
+            this.reranksNbest = reranksNbest;
+        }
+    }
+
     @Override
     public String getKey() {
         return "compare-decoders";
     }
 
-
-    private EvaluationEvent evaluateAstar() {
-        final ProgressLogger progressLogger = new ProgressLogger(
-                100,
-                devInputs.size(),
-                "Decoded sentence with A*",
-                stage::setProgress);
-
-        log.info("Evaluating A* search...");
-        final EvaluationEvent astarEvaluationEvent = EvaluateParserTask.evaluateCheckpoint(
-                checkpointPath,
-                devInputs,
-                stage.getArguments(),
-                backoffParserBuilder,
-                evaluator,
-                categories,
-                Optional.of(progressLogger));
-        return astarEvaluationEvent;
-    }
-
-    private EvaluationEvent evaluateReranking(final int nbest) {
-
-        final ProgressLogger progressLogger = new ProgressLogger(
-                100,
-                devInputs.size(),
-                "Decoded sentence with " + nbest + "-best reranking",
-                stage::setProgress);
-
-        log.info("Evaluating {}-best reranker...", nbest);
-        final AtomicInteger baseResultCount = new AtomicInteger(0);
-        final ParserListener nbestListener = new ParserListener() {
-            @Override
-            public void handleNewSentence(List<InputWord> words) {
-            }
-
-            @Override
-            public boolean handleChartInsertion(Agenda agenda) {
-                return true;
-            }
-
-            @Override
-            public void handleSearchCompletion(List<Scored<SyntaxTreeNode>> result, Agenda agenda, int chartSize) {
-                baseResultCount.addAndGet(result == null ? 0 : result.size());
-            }
-        };
-
-        final ParserStatistics nbestParseStats = new ParserStatistics();
-
-        final ParserAStar.Builder nbestBuilder = EasySRLUtil.parserBuilder(stage.getArguments())
+    private ParserAStar.Builder nbestBuilder(final int nbest) {
+        return EasySRLUtil.parserBuilder(stage.getArguments())
                 .modelFactory(new SupertagFactoredModelFactory(null, categories, true))
                 .maxAgendaSize(Integer.MAX_VALUE)
                 .maxChartSize(250000)
                 .nBest(nbest)
-                .allowUnseenRules(false)
-                .listeners(ImmutableList.of(nbestListener, nbestParseStats));
+                .allowUnseenRules(false);
+    }
 
-        final Parser nbestParser = new ParserAStar(nbestBuilder) {
+    private Parser nbestParser(final List<ParserListener> listeners) {
+        return new ParserAStar(nbestBuilder(MAX_NBEST).listeners(listeners)) {
             @Override
             protected ChartCellFactory chooseCellFactory(final ModelFactory modelFactory, final int nbest) {
-                return CellUtil.NbestChartCell.factory(nbest, nbestBeam);
+                return CellUtil.SortedNbestChartCell.factory(nbest, nbestBeam);
             }
         };
+    }
 
-        final ParserBuilder rerankerBuilder = EasySRLUtil.parserBuilder(
-                new ParserReranking.Builder(modelDir, nbestParser),
-                stage.getArguments());
-
-        final EvaluationEvent rerankerEvaluationEvent = EvaluateParserTask.evaluateCheckpoint(
-                rerankerBuilder,
-                checkpointPath,
-                devInputs,
-                stage.getArguments(),
-                backoffParserBuilder,
-                evaluator,
-                categories,
-                Optional.of(progressLogger),
-                true);
-
-        log.info("Base reranker result mean count: " + baseResultCount.doubleValue() / devInputs.size());
-        nbestParseStats.log();
-
-        return rerankerEvaluationEvent;
+    // Replays the prefetched n-best list of the current sentence, truncated to the given size. Smaller lists
+    // are the top of the 100-best list, whose search is pruned less than a dedicated smaller search.
+    private Parser replayParser(final int nbest) {
+        return new ParserAStar(nbestBuilder(nbest)) {
+            @Override
+            public List<Scored<SyntaxTreeNode>> doParsing(final InputToParser input) {
+                Preconditions.checkState(currentNbest.get().first() == input);
+                final List<Scored<SyntaxTreeNode>> parses = currentNbest.get().second();
+                return parses == null ? null : new ArrayList<>(parses.subList(0, Math.min(nbest, parses.size())));
+            }
+        };
     }
 
+    private <T extends ParserBuilder<T>> Decoder decoder(final String name,
+                                                         final T parserBuilder,
+                                                         final TreeFactoredModelFactory sharedFactory,
+                                                         final boolean useLazyAgenda,
+                                                         final boolean reranksNbest) {
+        return decoder(name, parserBuilder, (builder, parserStats) -> builder.build(), sharedFactory, useLazyAgenda,
+                reranksNbest);
+    }
 
-    private EvaluationEvent evaluateBeamSearch(final int beamSize) {
-        final ProgressLogger progressLogger = new ProgressLogger(
-                100,
-                devInputs.size(),
-                "Decoded sentence with beam search",
-                stage::setProgress);
+    private <T extends ParserBuilder<T>> Decoder decoder(final String name,
+                                                         final T parserBuilder,
+                                                         final BiFunction<T, ParserStatistics, Parser> build,
+                                                         final TreeFactoredModelFactory sharedFactory,
+                                                         final boolean useLazyAgenda,
+                                                         final boolean reranksNbest) {
+        final ParserStatistics parserStats = new ParserStatistics();
+        final TreeFactoredModelFactory modelFactory = sharedFactory.share(useLazyAgenda, Optional.of(parserStats));
+        final Parser parser = build.apply(parserBuilder
+                .modelFactory(modelFactory)
+                .listeners(ImmutableList.of(parserStats, modelFactory)), parserStats);
+        final Parser backoffParser = EasySRLUtil.backoffParserBuilder(stage.getArguments())
+                .listeners(ImmutableList.of(parserStats))
+                .build();
+        return new Decoder(name, parser, backoffParser,
+                new CheckpointStatistics(new EvaluationStatistics(), new EvaluationStatistics(), parserStats),
+                reranksNbest);
+    }
 
-        log.info("Evaluating beam search with a beam size of {}", beamSize);
-
-        final ParserBuilder beamSearchBuilder = EasySRLUtil.parserBuilder(
-                new ParserBeamSearch.Builder(modelDir, beamSize),
-                stage.getArguments())
-                .nBest(beamSize);
-
-        final EvaluationEvent beamSearchEvaluationEvent = EvaluateParserTask.evaluateCheckpoint(
-                beamSearchBuilder,
-                checkpointPath,
-                devInputs,
-                stage.getArguments(),
-                backoffParserBuilder,
-                evaluator,
-                categories,
-                Optional.of(progressLogger),
-                false);
-        return beamSearchEvaluationEvent;
+    private List<Decoder> decoders(final TreeFactoredModelFactory sharedFactory) {
+        final List<Decoder> decoders = new ArrayList<>();
+        decoders.add(decoder("A*", EasySRLUtil.parserBuilder(stage.getArguments(), ruleTable), sharedFactory, true, false));
+        for (final int nbest : new int[]{10, MAX_NBEST}) {
+            decoders.add(decoder(nbest + "-best reranking", EasySRLUtil.parserBuilder(
+                    new ParserReranking.Builder(modelDir, replayParser(nbest)),
+                    stage.getArguments()), sharedFactory, true, true));
+        }
+        for (final int beamSize : new int[]{2, 4, 8}) {
+            decoders.add(decoder("Beam search (" + beamSize + ")", EasySRLUtil.parserBuilder(
+                    new ParserBeamSearch.Builder(modelDir, beamSize),
+                    stage.getArguments())
+                    .nBest(beamSize), sharedFactory, false, false));
+        }
+        // Beam search whose cells keep their best entries rather than the first to arrive. Cells are complete
+        // before they are combined, so evicted entries are never expanded.
+        for (final int beamSize : new int[]{2, 4, 8}) {
+            decoders.add(decoder("Top-k beam search (" + beamSize + ")", EasySRLUtil.parserBuilder(
+                    new ParserBeamSearch.Builder(modelDir, beamSize),
+                    stage.getArguments())
+                    .nBest(beamSize),
+                    (builder, parserStats) -> new ParserBeamSearch(builder) {
+                        @Override
+                        protected ChartCellFactory chooseCellFactory(final ModelFactory modelFactory, final int nbest) {
+                            return CellUtil.TopKChartCell.factory(beamSize, parserStats::addPruning);
+                        }
+                    }, sharedFactory, false, false));
+        }
+        return decoders;
     }
 
     @Override
@@ -176,38 +198,133 @@ public class CompareDecodersTask implements ITask<EvaluationEvent> {
         this.stage = stage;
         this.modelDir = new File(stage.getArguments().getString("model_dir"));
 
-        this.evaluator = stage.read("evaluator", Serialized.class)
-                .findAny()
-                .map(SerializationUtil::<DependencyEvaluator>deserialize)
-                .get();
-
         this.checkpointPath = new File(stage.getArguments().getString("checkpoint_path"));
 
-        try {
-            this.categories = TaggerEmbeddings.loadCategories(new File(modelDir, "categories"));
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        try (final ArtifactCache.Handle<DependencyEvaluator> evaluatorHandle = ArtifactCache.acquireEvaluator(
+                stage.read("evaluator", Serialized.class).findAny().get());
+             final ArtifactCache.Handle<List<Category>> categoriesHandle = ArtifactCache.acquireCategories(modelDir);
+             final ArtifactCache.Handle<Optional<BinaryRuleTable>> ruleTableHandle =
+                     ArtifactCache.acquireBinaryRuleTable(stage.getArguments())) {
+            this.evaluator = evaluatorHandle.get();
+            this.categories = categoriesHandle.get();
+            this.ruleTable = ruleTableHandle.get();
+            return compareDecoders().stream();
         }
+    }
 
+    private List<EvaluationEvent> compareDecoders() {
         TreeFactoredModelFactory.initializeCNN(RunConfig.newBuilder()
                 .setMemory(stage.getArguments().getInt("native_memory")).build());
 
-        this.backoffParserBuilder = EasySRLUtil.backoffParserBuilder(stage.getArguments());
+        final int maxSentenceLength = EasySRLUtil.backoffParserBuilder(stage.getArguments()).getMaxSentenceLength();
 
         log.info("Reading dev data...");
         this.devInputs =
                 TrainParserTask.getTaggedInputs(stage, "dev-inputs", "dev-tags", categories)
-                        .filter(input -> input.getInputWords().size() <= backoffParserBuilder.getMaxSentenceLength())
+                        .filter(input -> input.getInputWords().size() <= maxSentenceLength)
                         .collect(Collectors.toList());
 
         log.info("Found {} dev sentences.", devInputs.size());
 
-        evaluateAstar();
-        evaluateReranking(10);
-        evaluateReranking(100);
-        evaluateBeamSearch(2);
-        evaluateBeamSearch(4);
-        evaluateBeamSearch(8);
-        return Stream.empty();
+        // The n-best parser is pure Java, so lists are generated ahead of the neural decoders, with one parser
+        // per thread.
+        final AtomicInteger baseResultCount = new AtomicInteger(0);
+        final AtomicLong nbestNanos = new AtomicLong(0);
+        final ParserStatistics nbestParseStats = new ParserStatistics();
+        final ParserListener nbestListener = new ParserListener() {
+            @Override
+            public void handleNewSentence(List<InputWord> words) {
+            }
+
+            @Override
+            public boolean handleChartInsertion(Agenda agenda) {
+                return true;
+            }
+
+            @Override
+            public void handleSearchCompletion(List<Scored<SyntaxTreeNode>> result, Agenda agenda, int chartSize) {
+                baseResultCount.addAndGet(result == null ? 0 : result.size());
+            }
+        };
+        final ThreadLocal<Parser> nbestParsers = ThreadLocal.withInitial(() ->
+                nbestParser(ImmutableList.of(nbestListener, nbestParseStats)));
+        final int numThreads = stage.getArguments().hasPath("num_threads") ?
+                stage.getArguments().getInt("num_threads") :
+                Runtime.getRuntime().availableProcessors();
+        final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        final int prefetch = 2 * numThreads;
+
+        final ProgressLogger progressLogger = new ProgressLogger(
+                100,
+                devInputs.size(),
+                "Decoded sentence",
+                stage::setProgress);
+
+        final List<Decoder> decoders;
+        synchronized (TreeFactoredModelFactory.class) {
+            final TreeFactoredModelFactory sharedFactory = new TreeFactoredModelFactory(
+                    Optional.empty(),
+                    categories,
+                    stage.getArguments(),
+                    false,
+                    true,
+                    Optional.empty(),
+                    checkpointPath,
+                    Optional.empty(),
+                    Optional.empty());
+            decoders = decoders(sharedFactory);
+            log.info("Comparing {} decoders...", decoders.size());
+
+            final Deque<Future<Pair<List<Scored<SyntaxTreeNode>>, Long>>> nbestLists = new ArrayDeque<>();
+            try {
+                for (int i = 0; i < devInputs.size() + prefetch; i++) {
+                    if (i < devInputs.size()) {
+                        final GoldInputToParser input = devInputs.get(i);
+                        nbestLists.add(executor.submit(() -> {
+                            final long start = System.nanoTime();
+                            final List<Scored<SyntaxTreeNode>> parses = nbestParsers.get().doParsing(input);
+                            final long nanos = System.nanoTime() - start;
+                            nbestNanos.addAndGet(nanos);
+                            return Pair.of(parses, nanos);
+                        }));
+                    }
+                    if (i < prefetch) {
+                        continue;
+                    }
+                    final GoldInputToParser input = devInputs.get(i - prefetch);
+                    final Pair<List<Scored<SyntaxTreeNode>>, Long> nbest = nbestLists.poll().get();
+                    currentNbest.set(Pair.of(input, nbest.first()));
+                    for (final Decoder decoder : decoders) {
+                        final Pair<EvaluationStatistics, EvaluationStatistics> sentenceStats = EvaluateParserTask.evaluateSentence(
+                                decoder.parser,
+                                decoder.backoffParser,
+                                input,
+                                evaluator,
+                                decoder.checkpointStats.getParserStats(),
+                                decoder.reranksNbest ? nbest.second() : 0);
+                        decoder.checkpointStats.getStats().merge(sentenceStats.first());
+                        decoder.checkpointStats.getBackoffStats().merge(sentenceStats.second());
+                    }
+                    progressLogger.maybeLog();
+                }
+            } catch (final InterruptedException | ExecutionException e) {
+                throw new RuntimeException(e);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        log.info("Base reranker result mean count: " + baseResultCount.doubleValue() / devInputs.size());
+        log.info("Generated {}-best lists at {} sentences per second per thread.", MAX_NBEST, devInputs.size() * 1e9 / nbestNanos.get());
+        nbestParseStats.log();
+
+        return decoders.stream()
+                .map(decoder -> {
+                    log.info("=====Decoder: {}=====", decoder.name);
+                    return decoder.checkpointStats.toEvent(checkpointPath)
+                            .setName(decoder.name)
+                            .build();
+                })
+                .collect(Collectors.toList());
     }
 }
@@ -16,9 +16,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
@@ -29,12 +27,12 @@ import edu.uw.easysrl.syntax.grammar.Category;
 import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode;
 import edu.uw.easysrl.syntax.parser.Parser;
 import edu.uw.easysrl.syntax.tagger.Tagger;
-import edu.uw.easysrl.syntax.tagger.TaggerEmbeddings;
 import edu.uw.easysrl.util.Util.Scored;
 import edu.uw.neuralccg.TrainProto.RunConfig;
 import edu.uw.neuralccg.model.TreeFactoredModel.TreeFactoredModelFactory;
 import edu.uw.neuralccg.printer.GatedHtmlPrinter;
 import edu.uw.neuralccg.printer.LatexPrinter;
+import edu.uw.neuralccg.util.ArtifactCache;
 import edu.uw.neuralccg.util.EasySRLUtil;
 import edu.uw.neuralccg.util.GateUtil.GlobalGateVisitor;
 import edu.uw.neuralccg.util.SyntaxUtil;
@@ -109,41 +107,36 @@ public class DemoTask implements ITask<Any> {
 
         final File checkpointPath = new File(stage.getArguments().getString("checkpoint_path"));
 
-        final Collection<Category> categories;
-        try {
-            categories = TaggerEmbeddings.loadCategories(new File(modelDir, "categories"));
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-
-        final Tagger tagger = EasySRLUtil.loadTagger(stage.getArguments());
-
-        TreeFactoredModelFactory.initializeCNN(RunConfig.newBuilder()
-                .setMemory(stage.getArguments().getInt("native_memory")).build());
-
-        synchronized (TreeFactoredModelFactory.class) {
-            modelFactory = new TreeFactoredModelFactory(
-                    Optional.of(tagger),
-                    categories,
-                    stage.getArguments(),
-                    true,
-                    true,
-                    Optional.empty(),
-                    checkpointPath,
-                    Optional.empty(),
-                    Optional.empty());
-
-            parser = EasySRLUtil.parserBuilder(stage.getArguments())
-                    .modelFactory(modelFactory)
-                    .listeners(Collections.singletonList(modelFactory))
-                    .build();
-
-            try {
-                while (true) {
-                    Thread.sleep(Long.MAX_VALUE);
+        try (final ArtifactCache.Handle<List<Category>> categories = ArtifactCache.acquireCategories(modelDir)) {
+            final Tagger tagger = EasySRLUtil.loadTagger(stage.getArguments());
+
+            TreeFactoredModelFactory.initializeCNN(RunConfig.newBuilder()
+                    .setMemory(stage.getArguments().getInt("native_memory")).build());
+
+            synchronized (TreeFactoredModelFactory.class) {
+                modelFactory = new TreeFactoredModelFactory(
+                        Optional.of(tagger),
+                        categories.get(),
+                        stage.getArguments(),
+                        true,
+                        true,
+                        Optional.empty(),
+                        checkpointPath,
+                        Optional.empty(),
+                        Optional.empty());
+
+                parser = EasySRLUtil.parserBuilder(stage.getArguments())
+                        .modelFactory(modelFactory)
+                        .listeners(Collections.singletonList(modelFactory))
+                        .build();
+
+                try {
+                    while (true) {
+                        Thread.sleep(Long.MAX_VALUE);
+                    }
+                } catch (final InterruptedException e) {
+                    throw new RuntimeException(e);
                 }
-            } catch (final InterruptedException e) {
-                throw new RuntimeException(e);
             }
         }
     }
@@ -4,11 +4,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.util.Set;
 import java.util.stream.Stream;
 
-import edu.uw.easysrl.corpora.CCGBankDependencies.DependencyParse;
+import edu.uw.easysrl.dependencies.ResolvedDependency;
+import edu.uw.neuralccg.CorpusProto.GoldSentenceProto;
 import edu.uw.neuralccg.SerializationProto.Serialized;
 import edu.uw.neuralccg.evaluation.DependencyEvaluator;
+import edu.uw.neuralccg.model.OracleModel.GoldInputToParser;
+import edu.uw.neuralccg.util.CorpusUtil;
 import edu.uw.neuralccg.util.SerializationUtil;
 import com.github.kentonl.pipegraph.core.Stage;
 import com.github.kentonl.pipegraph.task.ITask;
@@ -25,9 +29,10 @@ public class DependencyEvaluatorTask implements ITask<Serialized> {
     public Stream<Serialized> run(Stage stage) {
         final File modelDir = new File(
                 stage.getArguments().getString("model_dir"));
-        final Stream<DependencyParse> trainCorpus = stage.read("train", Serialized.class)
-                .map(SerializationUtil::deserialize);
-        final DependencyEvaluator evaluator = new DependencyEvaluator(modelDir, trainCorpus);
+        final Stream<Set<ResolvedDependency>> trainDependencies = stage.read("train", GoldSentenceProto.class)
+                .map(CorpusUtil::toGoldInput)
+                .map(GoldInputToParser::getGoldDependencies);
+        final DependencyEvaluator evaluator = new DependencyEvaluator(modelDir, trainDependencies);
         return Stream.of(SerializationUtil.serialize(evaluator));
     }
 }
\ No newline at end of file
@@ -1,34 +1,44 @@
 package edu.uw.neuralccg.task;
 
+import com.google.common.collect.MinMaxPriorityQueue;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Stream;
 
+import edu.uw.easysrl.dependencies.ResolvedDependency;
 import edu.uw.easysrl.syntax.grammar.Category;
 import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode;
 import edu.uw.easysrl.syntax.parser.Parser;
-import edu.uw.easysrl.syntax.tagger.TaggerEmbeddings;
 import edu.uw.easysrl.util.Util.Scored;
 import edu.uw.neuralccg.AnalysisProto.EvaluatedParse;
 import edu.uw.neuralccg.AnalysisProto.ParseComparison;
+import edu.uw.neuralccg.CorpusProto.GoldSentenceProto;
 import edu.uw.neuralccg.SerializationProto.Serialized;
 import edu.uw.neuralccg.TrainProto.RunConfig;
 import edu.uw.neuralccg.evaluation.DependencyEvaluator;
 import edu.uw.neuralccg.model.OracleModel.GoldInputToParser;
 import edu.uw.neuralccg.model.TreeFactoredModel.TreeFactoredModelFactory;
+import edu.uw.neuralccg.util.ArtifactCache;
+import edu.uw.neuralccg.util.CorpusUtil;
+import edu.uw.neuralccg.util.DerivationParser;
 import edu.uw.neuralccg.util.EasySRLUtil;
 import edu.uw.neuralccg.util.ProgressLogger;
 import edu.uw.neuralccg.util.RetrievalStatistics;
-import edu.uw.neuralccg.util.SerializationUtil;
+import edu.uw.neuralccg.util.SyntaxUtil;
 import com.github.kentonl.pipegraph.core.Stage;
 import com.github.kentonl.pipegraph.task.ITask;
 
@@ -43,24 +53,21 @@ public class DiffParsersTask implements ITask<ParseComparison> {
     @Override
     public Stream<ParseComparison> run(Stage stage) {
         final File modelDir = new File(stage.getArguments().getString("model_dir"));
+        try (final ArtifactCache.Handle<DependencyEvaluator> evaluator = ArtifactCache.acquireEvaluator(
+                stage.read("evaluator", Serialized.class).findAny().get());
+             final ArtifactCache.Handle<List<Category>> categories = ArtifactCache.acquireCategories(modelDir)) {
+            return diff(stage, evaluator.get(), categories.get());
+        }
+    }
 
-        final DependencyEvaluator evaluator = stage.read("evaluator", Serialized.class)
-                .findAny()
-                .map(SerializationUtil::<DependencyEvaluator>deserialize)
-                .get();
-
+    private static Stream<ParseComparison> diff(final Stage stage,
+                                                final DependencyEvaluator evaluator,
+                                                final Collection<Category> categories) {
         final File checkpointPath = new File(stage.getArguments().getString("checkpoint_dir"), "checkpoint.pb");
 
-        final Collection<Category> categories;
-        try {
-            categories = TaggerEmbeddings.loadCategories(new File(modelDir, "categories"));
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-
         final ProgressLogger progressLogger = new ProgressLogger(
                 100,
-                (int) stage.read("dev", Serialized.class).count(),
+                (int) stage.read("dev", GoldSentenceProto.class).count(),
                 "Analyzed sentence",
                 stage::setProgress);
 
@@ -87,48 +94,79 @@ public class DiffParsersTask implements ITask<ParseComparison> {
                     .build();
 
             final Parser backoffParser = EasySRLUtil.backoffParserBuilder(stage.getArguments()).build();
-
-            log.info("Reading dev data...");
-            final List<GoldInputToParser> devInputs = stage.read("dev", Serialized.class)
-                    .map(SerializationUtil::<GoldInputToParser>deserialize)
-                    .filter(gold -> gold.getInputWords().size() <= parser.getMaxSentenceLength())
-                    .collect(Collectors.toList());
-
-            log.info("Found {} dev sentences.", devInputs.size());
-
-            final List<ParseComparison> comparisons = new ArrayList<>();
-
-            log.info("Analyzing...");
-            for (final GoldInputToParser input : devInputs) {
-                final List<Scored<SyntaxTreeNode>> result = parser.doParsing(input);
-                final List<Scored<SyntaxTreeNode>> backoffResult = backoffParser.doParsing(input);
-                if (result != null && backoffResult != null) {
-                    final SyntaxTreeNode parse = result.get(0).getObject();
-                    final SyntaxTreeNode backoffParse = backoffResult.get(0).getObject();
-                    comparisons.add(ParseComparison.newBuilder()
-                            .setFirst(EvaluatedParse.newBuilder()
-                                    .setParse(SerializationUtil.serialize(parse))
-                                    .setF1(evaluator.evaluate(input.getGoldDependencies(), parse).getF1()))
-                            .setSecond(EvaluatedParse.newBuilder()
-                                    .setParse(SerializationUtil.serialize(backoffParse))
-                                    .setF1(evaluator.evaluate(input.getGoldDependencies(), backoffParse).getF1()))
-                            .setDifference(getSimilarity(backoffParse, parse, evaluator))
-                            .setGold(EvaluatedParse.newBuilder()
-                                    .setParse(SerializationUtil.serialize(input.getOracleParse()))
-                                    .setF1(evaluator.evaluate(input.getGoldDependencies(), input.getOracleParse()).getF1()))
-                            .build());
-                }
-                progressLogger.maybeLog();
+            final DerivationParser derivationParser = new DerivationParser(stage.getArguments(), categories);
+
+            // With top_k set, only the k most divergent comparisons are kept, with compactly encoded parses.
+            final int topK = stage.getArguments().hasPath("top_k") ? stage.getArguments().getInt("top_k") : 0;
+            final Comparator<ParseComparison> byDifference = Comparator.comparingDouble(ParseComparison::getDifference);
+            final Collection<ParseComparison> comparisons = topK > 0
+                    ? MinMaxPriorityQueue.orderedBy(byDifference).maximumSize(topK).create()
+                    : new ArrayList<>();
+
+            // The backoff parser does not use the native model, so it runs alongside the main parser.
+            final ExecutorService backoffExecutor = Executors.newSingleThreadExecutor();
+            try {
+                log.info("Analyzing...");
+                stage.read("dev", GoldSentenceProto.class)
+                        .map(proto -> CorpusUtil.toGoldInput(proto, derivationParser))
+                        .filter(gold -> gold.getInputWords().size() <= parser.getMaxSentenceLength())
+                        .forEach(input -> {
+                            final Future<List<Scored<SyntaxTreeNode>>> backoffFuture =
+                                    backoffExecutor.submit(() -> backoffParser.doParsing(input));
+                            final List<Scored<SyntaxTreeNode>> result = parser.doParsing(input);
+                            final List<Scored<SyntaxTreeNode>> backoffResult;
+                            try {
+                                backoffResult = backoffFuture.get();
+                            } catch (final InterruptedException | ExecutionException e) {
+                                throw new RuntimeException(e);
+                            }
+                            if (result != null && backoffResult != null) {
+                                comparisons.add(compare(input, result.get(0).getObject(),
+                                        backoffResult.get(0).getObject(), evaluator, topK > 0));
+                            }
+                            progressLogger.maybeLog();
+                        });
+            } finally {
+                backoffExecutor.shutdownNow();
             }
-            return comparisons.stream().sorted((x, y) -> Double.compare(x.getDifference(), y.getDifference()));
+            log.info("Kept {} comparisons.", comparisons.size());
+            return comparisons.stream().sorted(byDifference);
+        }
+    }
+
+    private static ParseComparison compare(final GoldInputToParser input,
+                                           final SyntaxTreeNode parse,
+                                           final SyntaxTreeNode backoffParse,
+                                           final DependencyEvaluator evaluator,
+                                           final boolean compact) {
+        return ParseComparison.newBuilder()
+                .setFirst(evaluateParse(parse, input.getGoldDependencies(), evaluator, compact))
+                .setSecond(evaluateParse(backoffParse, input.getGoldDependencies(), evaluator, compact))
+                .setDifference(getSimilarity(backoffParse, parse, evaluator))
+                .setGold(evaluateParse(input.getOracleParse(), input.getGoldDependencies(), evaluator, compact))
+                .build();
+    }
+
+    private static EvaluatedParse.Builder evaluateParse(final SyntaxTreeNode parse,
+                                                        final Set<ResolvedDependency> goldDependencies,
+                                                        final DependencyEvaluator evaluator,
+                                                        final boolean compact) {
+        final EvaluatedParse.Builder evaluatedParse = EvaluatedParse.newBuilder()
+                .setF1(evaluator.evaluate(goldDependencies, parse).getF1());
+        if (compact) {
+            evaluatedParse.setChart(SyntaxUtil.toChart(parse));
+        } else {
+            evaluatedParse.setParse(SerializationUtil.serialize(parse));
         }
+        return evaluatedParse;
     }
 
     public static double getSimilarity(final SyntaxTreeNode first,
                                        final SyntaxTreeNode second,
                                        final DependencyEvaluator evaluator) {
         final RetrievalStatistics stats = new RetrievalStatistics().update(evaluator.predictedDependencyStream(first),
-                evaluator.predictedDependencyStream(second));
+                evaluator.predictedDependencyStream(second),
+                DependencyEvaluator::encode);
         if (stats.getGold() == 0 && stats.getPredicted() == 0) {
             return 1.0;
         } else {
@@ -7,49 +7,58 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import edu.uw.easysrl.syntax.grammar.Category;
 import edu.uw.easysrl.syntax.parser.ParserBuilder;
-import edu.uw.easysrl.syntax.tagger.TaggerEmbeddings;
 import edu.uw.neuralccg.AnalysisProto.EvaluationEvent;
 import edu.uw.neuralccg.SerializationProto.Serialized;
 import edu.uw.neuralccg.TrainProto.RunConfig;
 import edu.uw.neuralccg.evaluation.DependencyEvaluator;
+import edu.uw.neuralccg.evaluation.ShardedEvaluator;
+import edu.uw.neuralccg.evaluation.analysis.CheckpointStatistics;
+import edu.uw.neuralccg.grammar.BinaryRuleTable;
 import edu.uw.neuralccg.model.OracleModel.GoldInputToParser;
 import edu.uw.neuralccg.model.TreeFactoredModel.TreeFactoredModelFactory;
+import edu.uw.neuralccg.util.ArtifactCache;
+import edu.uw.neuralccg.util.CheckpointWatcher;
 import edu.uw.neuralccg.util.EasySRLUtil;
 import edu.uw.neuralccg.util.ProgressLogger;
-import edu.uw.neuralccg.util.SerializationUtil;
 
 public class EvaluateCheckpointsTask implements ITask<EvaluationEvent> {
     public static final Logger log = LoggerFactory.getLogger(EvaluateCheckpointsTask.class);
 
-    final Set<File> evaluated = new HashSet<>();
     final Map<String, EvaluationEvent> bestEvents = new HashMap<>();
-    final
 
     @Override
     public String getKey() {
         return "evaluate-checkpoints";
     }
 
-    // Returns the checkpoint file to remove.
-    private Optional<File> updateBestEvents(final EvaluationEvent event) {
+    // Returns the checkpoint file to remove. Called concurrently when several checkpoints are evaluated
+    // at once.
+    private synchronized Optional<File> updateBestEvents(final EvaluationEvent event) {
         final EvaluationEvent oldBestEvent = bestEvents.get(event.getName());
-        if (oldBestEvent == null) {
+        if (event.getPartial()) {
+            return Optional.of(new File(event.getCheckpointPath()));
+        } else if (oldBestEvent == null) {
             bestEvents.put(event.getName(), event);
             return Optional.empty();
         } else if (event.getEvalBackoff().getF1() > oldBestEvent.getEvalBackoff().getF1()) {
@@ -60,70 +69,166 @@ public class EvaluateCheckpointsTask implements ITask<EvaluationEvent> {
         }
     }
 
-    private Stream<EvaluationEvent> evaluateCheckpoints(final File checkpointDir,
-                                                        final List<File> toDelete,
-                                                        final Function<File, EvaluationEvent> evaluate) {
-        toDelete.forEach(File::delete);
-        try {
-            Thread.sleep(10000);
-        } catch (final InterruptedException e) {
-            throw new RuntimeException(e);
-        }
-        try {
-              return Files.walk(checkpointDir.toPath())
-                    .map(Path::toFile)
-                    .filter(File::isFile)
-                    .filter(checkpointPath -> !evaluated.contains(checkpointPath))
-                    .filter(checkpointPath -> System.nanoTime() - checkpointPath.lastModified() > 10000)
-                    .peek(checkpointPath -> log.info("Evaluating new checkpoint at {}", checkpointPath.getAbsolutePath()))
-                    .peek(evaluated::add)
-                    .map(evaluate)
-                    .peek(event -> updateBestEvents(event).ifPresent(toDelete::add));
-        } catch (final IOException e) {
-            throw new RuntimeException(e);
-        }
+    private synchronized Optional<Double> getBestF1(final String name) {
+        return Optional.ofNullable(bestEvents.get(name)).map(event -> event.getEvalBackoff().getF1());
+    }
+
+    // Takes evenly spaced sentences by length, so that the subset covers the full range of lengths.
+    private static Set<Integer> stratifiedSubset(final List<GoldInputToParser> inputs, final int size) {
+        final List<Integer> byLength = IntStream.range(0, inputs.size())
+                .boxed()
+                .sorted(Comparator.comparingInt(i -> inputs.get(i).getInputWords().size()))
+                .collect(Collectors.toList());
+        final int subsetSize = Math.min(size, inputs.size());
+        return IntStream.range(0, subsetSize)
+                .mapToObj(i -> byLength.get((int) ((long) i * inputs.size() / subsetSize)))
+                .collect(Collectors.toSet());
     }
 
     @Override
     public Stream<EvaluationEvent> run(Stage stage) {
         final File modelDir = new File(stage.getArguments().getString("model_dir"));
-        final List<Category> categories;
-        try {
-            categories = TaggerEmbeddings.loadCategories(new File(modelDir, "categories"));
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        final ArtifactCache.Handle<List<Category>> categories = ArtifactCache.acquireCategories(modelDir);
 
         final ParserBuilder<?> backoffParserBuilder = EasySRLUtil.backoffParserBuilder(stage.getArguments());
 
         final List<GoldInputToParser> devInputs =
-                TrainParserTask.getTaggedInputs(stage, "dev-inputs", "dev-tags", categories)
+                TrainParserTask.getTaggedInputs(stage, "dev-inputs", "dev-tags", categories.get())
                         .filter(input -> input.getInputWords().size() <= backoffParserBuilder.getMaxSentenceLength())
                         .limit(stage.getArguments().hasPath("dev_limit") ?
                                 stage.getArguments().getLong("dev_limit") : Long.MAX_VALUE)
                         .collect(Collectors.toList());
-        final DependencyEvaluator evaluator = stage.read("evaluator", Serialized.class)
+        final Serialized serializedEvaluator = stage.read("evaluator", Serialized.class)
                 .findAny()
-                .map(SerializationUtil::<DependencyEvaluator>deserialize)
                 .get();
+        // Only loaded if checkpoints are evaluated in this process.
+        final ArtifactCache.Handle<DependencyEvaluator> evaluator = ArtifactCache.acquireEvaluator(serializedEvaluator);
+        final ArtifactCache.Handle<Optional<BinaryRuleTable>> ruleTable = ArtifactCache.acquireBinaryRuleTable(stage.getArguments());
 
         TreeFactoredModelFactory.initializeCNN(RunConfig.newBuilder()
                 .setMemory(stage.getArguments().getInt("native_memory")).build());
         final File checkpointDir = new File(stage.getArguments().getString("checkpoints_dir"));
         checkpointDir.mkdirs();
-        final List<File> toDelete = new ArrayList<>();
-        return Stream.generate(() -> evaluateCheckpoints(checkpointDir, toDelete, checkpointPath ->
-                EvaluateParserTask.evaluateCheckpoint(
-                        checkpointPath,
-                        devInputs,
-                        stage.getArguments(),
-                        backoffParserBuilder,
-                        evaluator,
-                        categories,
-                        Optional.of(new ProgressLogger(
-                                100,
-                                devInputs.size(),
-                                "Analyzed sentence",
-                                stage::setProgress))))).flatMap(Function.identity());
+        final CheckpointWatcher watcher = new CheckpointWatcher(checkpointDir,
+                !stage.getArguments().hasPath("skip_superseded") || stage.getArguments().getBoolean("skip_superseded"));
+        final int numWorkers = stage.getArguments().hasPath("num_workers") ?
+                stage.getArguments().getInt("num_workers") : 0;
+        final int concurrentEvaluations = stage.getArguments().hasPath("concurrent_evaluations") ?
+                stage.getArguments().getInt("concurrent_evaluations") : 1;
+
+        // The native scorer is global to the process, so concurrent evaluations each need their own worker
+        // processes. Inputs, evaluator and backoff parser are shared between evaluations and only read.
+        final int workersPerEvaluation = concurrentEvaluations > 1 ? Math.max(numWorkers, 1) : numWorkers;
+        final Function<List<GoldInputToParser>, BiFunction<File, Optional<ProgressLogger>, CheckpointStatistics>> evaluatorFor = inputs -> {
+            if (workersPerEvaluation > 0) {
+                return new ShardedEvaluator(inputs, serializedEvaluator, stage.getArguments(), workersPerEvaluation)::computeStatistics;
+            }
+            return (checkpointPath, progressLogger) -> EvaluateParserTask.computeStatistics(
+                    EasySRLUtil.parserBuilder(stage.getArguments(), ruleTable.get()),
+                    checkpointPath,
+                    inputs,
+                    stage.getArguments(),
+                    backoffParserBuilder,
+                    evaluator.get(),
+                    categories.get(),
+                    progressLogger,
+                    true);
+        };
+        final BiFunction<File, Optional<ProgressLogger>, CheckpointStatistics> evaluateAll = evaluatorFor.apply(devInputs);
+
+        // Once a run has a best checkpoint, later checkpoints are first evaluated on a subset, and only
+        // evaluated on the remaining inputs if an upper bound on their F1 could still beat the best.
+        final int earlyStopSentences = stage.getArguments().hasPath("early_stop_sentences") ?
+                stage.getArguments().getInt("early_stop_sentences") : 0;
+        final double earlyStopZ = stage.getArguments().hasPath("early_stop_z") ?
+                stage.getArguments().getDouble("early_stop_z") : 2.0;
+        final Set<Integer> subset = stratifiedSubset(devInputs, earlyStopSentences);
+        final Optional<BiFunction<File, Optional<ProgressLogger>, CheckpointStatistics>> evaluateSubset = Optional.of(subset)
+                .filter(indexes -> !indexes.isEmpty())
+                .map(indexes -> evaluatorFor.apply(IntStream.range(0, devInputs.size())
+                        .filter(indexes::contains)
+                        .mapToObj(devInputs::get)
+                        .collect(Collectors.toList())));
+        final Optional<BiFunction<File, Optional<ProgressLogger>, CheckpointStatistics>> evaluateRemaining = Optional.of(subset)
+                .filter(indexes -> !indexes.isEmpty())
+                .map(indexes -> evaluatorFor.apply(IntStream.range(0, devInputs.size())
+                        .filter(i -> !indexes.contains(i))
+                        .mapToObj(devInputs::get)
+                        .collect(Collectors.toList())));
+
+        final Function<File, EvaluationEvent> evaluate = checkpointPath -> {
+            log.info("Evaluating new checkpoint at {}", checkpointPath.getAbsolutePath());
+            final Optional<ProgressLogger> progressLogger = Optional.of(new ProgressLogger(
+                    100,
+                    devInputs.size(),
+                    "Analyzed sentence",
+                    stage::setProgress));
+            final Optional<Double> bestF1 = getBestF1(checkpointPath.getParentFile().getName());
+            final EvaluationEvent event;
+            if (evaluateSubset.isPresent() && bestF1.isPresent()) {
+                final CheckpointStatistics checkpointStats = evaluateSubset.get().apply(checkpointPath, progressLogger);
+                final double upperBound = 100.0 * checkpointStats.getBackoffStats().getF1UpperBound(earlyStopZ);
+                if (upperBound <= bestF1.get()) {
+                    log.info("Stopping early after {} sentences: F1 upper bound of {} is below the best F1 of {}.",
+                            checkpointStats.getBackoffStats().getSentenceCount(), upperBound, bestF1.get());
+                    event = checkpointStats.toEvent(checkpointPath).setPartial(true).build();
+                } else {
+                    checkpointStats.merge(evaluateRemaining.get().apply(checkpointPath, progressLogger));
+                    event = checkpointStats.toEvent(checkpointPath).build();
+                }
+            } else {
+                event = evaluateAll.apply(checkpointPath, progressLogger).toEvent(checkpointPath).build();
+            }
+            updateBestEvents(event).ifPresent(File::delete);
+            return event;
+        };
+
+        // Checkpoints are only taken from the watcher when an evaluation slot is free, so that the newest
+        // checkpoints are chosen at the time they can be evaluated.
+        final ExecutorService executor = Executors.newFixedThreadPool(concurrentEvaluations);
+        final CompletionService<EvaluationEvent> completionService = new ExecutorCompletionService<>(executor);
+        final Semaphore slots = new Semaphore(concurrentEvaluations);
+        final Thread dispatchThread = new Thread(() -> {
+            try {
+                while (true) {
+                    slots.acquire();
+                    final File checkpointPath = watcher.take();
+                    completionService.submit(() -> {
+                        try {
+                            return evaluate.apply(checkpointPath);
+                        } finally {
+                            slots.release();
+                        }
+                    });
+                }
+            } catch (final InterruptedException | RuntimeException e) {
+                log.info("Stopped watching for checkpoints.", e);
+                // Fails the consumer, which would otherwise wait forever for the next evaluation.
+                try {
+                    completionService.submit(() -> {
+                        throw e;
+                    });
+                } catch (final RejectedExecutionException rejected) {
+                    // The stage was closed.
+                }
+            }
+        });
+        dispatchThread.setDaemon(true);
+        dispatchThread.start();
+
+        return Stream.generate(() -> {
+            try {
+                return completionService.take().get();
+            } catch (final InterruptedException | ExecutionException e) {
+                throw new RuntimeException(e);
+            }
+        }).onClose(() -> {
+            dispatchThread.interrupt();
+            executor.shutdownNow();
+            watcher.close();
+            evaluator.close();
+            ruleTable.close();
+            categories.close();
+        });
     }
 }
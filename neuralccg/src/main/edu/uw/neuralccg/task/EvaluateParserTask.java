@@ -7,15 +7,17 @@ import com.google.common.collect.Lists;
 
 import com.github.kentonl.pipegraph.core.Stage;
 import com.github.kentonl.pipegraph.task.ITask;
+import com.github.kentonl.pipegraph.util.tuple.Pair;
 import com.typesafe.config.Config;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -23,19 +25,21 @@ import edu.uw.easysrl.syntax.grammar.Category;
 import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode;
 import edu.uw.easysrl.syntax.parser.Parser;
 import edu.uw.easysrl.syntax.parser.ParserBuilder;
-import edu.uw.easysrl.syntax.tagger.TaggerEmbeddings;
 import edu.uw.easysrl.util.Util.Scored;
 import edu.uw.neuralccg.AnalysisProto.EvaluationEvent;
 import edu.uw.neuralccg.SerializationProto.Serialized;
 import edu.uw.neuralccg.TrainProto.RunConfig;
 import edu.uw.neuralccg.evaluation.DependencyEvaluator;
+import edu.uw.neuralccg.evaluation.ShardedEvaluator;
+import edu.uw.neuralccg.evaluation.analysis.CheckpointStatistics;
 import edu.uw.neuralccg.evaluation.analysis.EvaluationStatistics;
 import edu.uw.neuralccg.evaluation.analysis.ParserStatistics;
+import edu.uw.neuralccg.grammar.BinaryRuleTable;
 import edu.uw.neuralccg.model.OracleModel.GoldInputToParser;
 import edu.uw.neuralccg.model.TreeFactoredModel.TreeFactoredModelFactory;
+import edu.uw.neuralccg.util.ArtifactCache;
 import edu.uw.neuralccg.util.EasySRLUtil;
 import edu.uw.neuralccg.util.ProgressLogger;
-import edu.uw.neuralccg.util.SerializationUtil;
 
 public class EvaluateParserTask implements ITask<EvaluationEvent> {
     public static final Logger log = LoggerFactory.getLogger(EvaluateParserTask.class);
@@ -60,11 +64,44 @@ public class EvaluateParserTask implements ITask<EvaluationEvent> {
                                                      final List<Category> categories,
                                                      final Optional<ProgressLogger> progressLogger,
                                                      final boolean useLazyAgenda) {
+        return computeStatistics(parserBuilder, checkpointPath, inputs, arguments, backoffParserBuilder, evaluator,
+                categories, progressLogger, useLazyAgenda).toEvent(checkpointPath).build();
+    }
+
+    public static CheckpointStatistics computeStatistics(final ParserBuilder<?> parserBuilder,
+                                                         final File checkpointPath,
+                                                         final List<GoldInputToParser> inputs,
+                                                         final Config arguments,
+                                                         final ParserBuilder<?>  backoffParserBuilder,
+                                                         final DependencyEvaluator evaluator,
+                                                         final List<Category> categories,
+                                                         final Optional<ProgressLogger> progressLogger,
+                                                         final boolean useLazyAgenda) {
         Preconditions.checkArgument(checkpointPath.exists());
         Preconditions.checkArgument(checkpointPath.getName().endsWith(".pb"));
-        final long steps = Long.parseLong(checkpointPath.getName().substring(0, checkpointPath.getName().length() - ".pb".length()));
 
-        final ParserStatistics parserStats = new ParserStatistics();
+        final CheckpointStatistics checkpointStats = new CheckpointStatistics();
+        evaluateInputs(parserBuilder, checkpointPath, inputs, arguments, backoffParserBuilder, evaluator, categories,
+                useLazyAgenda, checkpointStats.getParserStats(), (sentenceStats, sentenceBackoffStats) -> {
+                    checkpointStats.getStats().merge(sentenceStats);
+                    checkpointStats.getBackoffStats().merge(sentenceBackoffStats);
+                    progressLogger.ifPresent(ProgressLogger::maybeLog);
+                });
+        return checkpointStats;
+    }
+
+    // Parses each input with the checkpoint, passing the statistics of every sentence to the consumer in
+    // order. The parser statistics accumulate across sentences.
+    public static void evaluateInputs(final ParserBuilder<?> parserBuilder,
+                                      final File checkpointPath,
+                                      final List<GoldInputToParser> inputs,
+                                      final Config arguments,
+                                      final ParserBuilder<?> backoffParserBuilder,
+                                      final DependencyEvaluator evaluator,
+                                      final List<Category> categories,
+                                      final boolean useLazyAgenda,
+                                      final ParserStatistics parserStats,
+                                      final BiConsumer<EvaluationStatistics, EvaluationStatistics> sentenceConsumer) {
         synchronized (TreeFactoredModelFactory.class) {
             final TreeFactoredModelFactory modelFactory = new TreeFactoredModelFactory(
                     Optional.empty(),
@@ -86,47 +123,54 @@ public class EvaluateParserTask implements ITask<EvaluationEvent> {
                     .listeners(Lists.newArrayList(Iterables.concat(parserBuilder.getListeners(), ImmutableList.of(parserStats, modelFactory))))
                     .build();
 
-            final EvaluationStatistics backoffStats = new EvaluationStatistics();
-            final EvaluationStatistics stats = new EvaluationStatistics();
             for (final GoldInputToParser input : inputs) {
-                backoffStats.getParseTime().start();
-                stats.getParseTime().start();
-                final List<Scored<SyntaxTreeNode>> result = parser.doParsing(input);
-                stats.getParseTime().stop();
-                stats.updateStats(input.getGoldDependencies(), input.getGoldCategories(), result, evaluator);
-
-                if (result != null) {
-                    backoffStats.updateStats(input.getGoldDependencies(), input.getGoldCategories(), result, evaluator);
-                } else {
-                    backoffStats.updateStats(input.getGoldDependencies(), input.getGoldCategories(),  backoffParser.doParsing(input), evaluator);
-                    parserStats.discountBackoff();
-                }
-                backoffStats.getParseTime().stop();
-                progressLogger.ifPresent(ProgressLogger::maybeLog);
+                final Pair<EvaluationStatistics, EvaluationStatistics> sentenceStats =
+                        evaluateSentence(parser, backoffParser, input, evaluator, parserStats);
+                sentenceConsumer.accept(sentenceStats.first(), sentenceStats.second());
             }
+        }
+    }
 
-            log.info("=====Evaluation=====");
-            stats.log();
-            log.info("===================");
-
-            log.info("=====Evaluation with backoff=====");
-            backoffStats.log();
-            log.info("===================");
-
-            log.info("=====Parse stats=====");
-            parserStats.log();
-            log.info("===================");
-            final EvaluationEvent evaluationEvent = EvaluationEvent.newBuilder()
-                    .setName(checkpointPath.getParentFile().getName())
-                    .setCheckpointPath(checkpointPath.getAbsolutePath())
-                    .setTimestamp(checkpointPath.lastModified())
-                    .setSteps(steps)
-                    .setEval(stats.toProto())
-                    .setEvalBackoff(backoffStats.toProto())
-                    .setParseStats(parserStats.toProto())
-                    .build();
-            return evaluationEvent;
+    // Returns the statistics for a single sentence without and with backoff.
+    public static Pair<EvaluationStatistics, EvaluationStatistics> evaluateSentence(final Parser parser,
+                                                                                final Parser backoffParser,
+                                                                                final GoldInputToParser input,
+                                                                                final DependencyEvaluator evaluator,
+                                                                                final ParserStatistics parserStats) {
+        return evaluateSentence(parser, backoffParser, input, evaluator, parserStats, 0);
+    }
+
+    // Time spent preparing the parser's input, such as generating the candidates of a reranker, is added
+    // to the cost of the sentence.
+    public static Pair<EvaluationStatistics, EvaluationStatistics> evaluateSentence(final Parser parser,
+                                                                                final Parser backoffParser,
+                                                                                final GoldInputToParser input,
+                                                                                final DependencyEvaluator evaluator,
+                                                                                final ParserStatistics parserStats,
+                                                                                final long preparationNanos) {
+        final EvaluationStatistics backoffStats = EvaluationStatistics.forSentence();
+        final EvaluationStatistics stats = EvaluationStatistics.forSentence();
+        final int sentenceLength = input.getGoldCategories().size();
+        final int neuralCountBefore = parserStats.getNeuralCount();
+        backoffStats.getParseTime().start();
+        stats.getParseTime().start();
+        final List<Scored<SyntaxTreeNode>> result = parser.doParsing(input);
+        stats.getParseTime().stop();
+        final int neuralQueries = parserStats.getNeuralCount() - neuralCountBefore;
+        stats.updateStats(input.getGoldDependencies(), input.getGoldCategories(), result, evaluator);
+        stats.addParseNanos(preparationNanos);
+        stats.addSentenceCost(sentenceLength, stats.getParseTime().elapsed(TimeUnit.NANOSECONDS) + preparationNanos, neuralQueries);
+
+        if (result != null) {
+            backoffStats.updateStats(input.getGoldDependencies(), input.getGoldCategories(), result, evaluator);
+        } else {
+            backoffStats.updateStats(input.getGoldDependencies(), input.getGoldCategories(),  backoffParser.doParsing(input), evaluator);
+            parserStats.discountBackoff();
         }
+        backoffStats.getParseTime().stop();
+        backoffStats.addParseNanos(preparationNanos);
+        backoffStats.addSentenceCost(sentenceLength, backoffStats.getParseTime().elapsed(TimeUnit.NANOSECONDS) + preparationNanos, neuralQueries);
+        return Pair.of(stats, backoffStats);
     }
 
     @Override
@@ -138,48 +182,56 @@ public class EvaluateParserTask implements ITask<EvaluationEvent> {
     public Stream<EvaluationEvent> run(Stage stage) {
         final File modelDir = new File(stage.getArguments().getString("model_dir"));
 
-        final DependencyEvaluator evaluator = stage.read("evaluator", Serialized.class)
+        final Serialized serializedEvaluator = stage.read("evaluator", Serialized.class)
                 .findAny()
-                .map(SerializationUtil::<DependencyEvaluator>deserialize)
                 .get();
 
         final File checkpointPath = new File(stage.getArguments().getString("checkpoint_path"));
 
-        final List<Category> categories;
-        try {
-            categories = TaggerEmbeddings.loadCategories(new File(modelDir, "categories"));
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        // The evaluator is only deserialized if this process parses.
+        try (final ArtifactCache.Handle<DependencyEvaluator> evaluator = ArtifactCache.acquireEvaluator(serializedEvaluator);
+             final ArtifactCache.Handle<List<Category>> categories = ArtifactCache.acquireCategories(modelDir);
+             final ArtifactCache.Handle<Optional<BinaryRuleTable>> ruleTable =
+                     ArtifactCache.acquireBinaryRuleTable(stage.getArguments())) {
+            TreeFactoredModelFactory.initializeCNN(RunConfig.newBuilder()
+                    .setMemory(stage.getArguments().getInt("native_memory")).build());
+
+            final ParserBuilder<?> backoffParserBuilder = EasySRLUtil.backoffParserBuilder(stage.getArguments());
+
+            log.info("Reading dev data...");
+            final List<GoldInputToParser> devInputs =
+                    TrainParserTask.getTaggedInputs(stage, "dev-inputs", "dev-tags", categories.get())
+                            .filter(input -> input.getInputWords().size() <= backoffParserBuilder.getMaxSentenceLength())
+                            .collect(Collectors.toList());
+
+            log.info("Found {} dev sentences.", devInputs.size());
+
+            final ProgressLogger progressLogger = new ProgressLogger(
+                    100,
+                    devInputs.size(),
+                    "Analyzed sentence",
+                    stage::setProgress);
+
+            final int numWorkers = stage.getArguments().hasPath("num_workers") ?
+                    stage.getArguments().getInt("num_workers") : 0;
+            if (numWorkers > 0) {
+                log.info("Evaluating checkpoint with {} workers...", numWorkers);
+                return Stream.of(new ShardedEvaluator(devInputs, serializedEvaluator, stage.getArguments(), numWorkers)
+                        .evaluate(checkpointPath, Optional.of(progressLogger)));
+            }
 
-        TreeFactoredModelFactory.initializeCNN(RunConfig.newBuilder()
-                .setMemory(stage.getArguments().getInt("native_memory")).build());
-
-        final ParserBuilder<?> backoffParserBuilder = EasySRLUtil.backoffParserBuilder(stage.getArguments());
-
-        log.info("Reading dev data...");
-        final List<GoldInputToParser> devInputs =
-                TrainParserTask.getTaggedInputs(stage, "dev-inputs", "dev-tags", categories)
-                        .filter(input -> input.getInputWords().size() <= backoffParserBuilder.getMaxSentenceLength())
-                        .collect(Collectors.toList());
-
-        log.info("Found {} dev sentences.", devInputs.size());
-
-        final ProgressLogger progressLogger = new ProgressLogger(
-                100,
-                devInputs.size(),
-                "Analyzed sentence",
-                stage::setProgress);
-
-        log.info("Evaluating checkpoint...");
-        final EvaluationEvent evaluationEvent = evaluateCheckpoint(
-                checkpointPath,
-                devInputs,
-                stage.getArguments(),
-                backoffParserBuilder,
-                evaluator,
-                categories,
-                Optional.of(progressLogger));
-        return Stream.of(evaluationEvent);
+            log.info("Evaluating checkpoint...");
+            final EvaluationEvent evaluationEvent = evaluateCheckpoint(
+                    EasySRLUtil.parserBuilder(stage.getArguments(), ruleTable.get()),
+                    checkpointPath,
+                    devInputs,
+                    stage.getArguments(),
+                    backoffParserBuilder,
+                    evaluator.get(),
+                    categories.get(),
+                    Optional.of(progressLogger),
+                    true);
+            return Stream.of(evaluationEvent);
+        }
     }
 }
@@ -5,14 +5,12 @@ import org.slf4j.LoggerFactory;
 
 import java.util.stream.Stream;
 
-import edu.uw.easysrl.corpora.CCGBankDependencies.DependencyParse;
-import edu.uw.neuralccg.SerializationProto.Serialized;
-import edu.uw.neuralccg.model.OracleModel.GoldInputToParser;
-import edu.uw.neuralccg.util.SerializationUtil;
+import edu.uw.neuralccg.CorpusProto.GoldSentenceProto;
+import edu.uw.neuralccg.util.CorpusUtil;
 import com.github.kentonl.pipegraph.core.Stage;
 import com.github.kentonl.pipegraph.task.ITask;
 
-public class GoldInputsTask implements ITask<Serialized> {
+public class GoldInputsTask implements ITask<GoldSentenceProto> {
     public static final Logger log = LoggerFactory.getLogger(GoldInputsTask.class);
 
     @Override
@@ -21,10 +19,9 @@ public class GoldInputsTask implements ITask<Serialized> {
     }
 
     @Override
-    public Stream<Serialized> run(Stage stage) {
-        return stage.read("gold", Serialized.class)
-                .map(SerializationUtil::<DependencyParse>deserialize)
-                .map(parse -> new GoldInputToParser(parse, null))
-                .map(SerializationUtil::serialize);
+    public Stream<GoldSentenceProto> run(Stage stage) {
+        return stage.read("gold", GoldSentenceProto.class)
+                .map(CorpusUtil::toGoldInput)
+                .map(CorpusUtil::toProto);
     }
 }
\ No newline at end of file
@@ -2,110 +2,166 @@ package edu.uw.neuralccg.task;
 
 import com.github.kentonl.pipegraph.core.Stage;
 import com.github.kentonl.pipegraph.task.ITask;
-import com.github.kentonl.pipegraph.util.LambdaUtil;
-import com.github.kentonl.pipegraph.util.tuple.Pair;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.IOException;
-import java.util.Collection;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import edu.uw.easysrl.corpora.CCGBankDependencies.DependencyParse;
 import edu.uw.easysrl.syntax.grammar.Category;
 import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode;
 import edu.uw.easysrl.syntax.parser.Parser;
-import edu.uw.easysrl.syntax.tagger.TaggerEmbeddings;
 import edu.uw.easysrl.util.Util.Scored;
+import edu.uw.neuralccg.CorpusProto.GoldSentenceProto;
 import edu.uw.neuralccg.SerializationProto.Serialized;
 import edu.uw.neuralccg.evaluation.DependencyEvaluator;
 import edu.uw.neuralccg.evaluation.analysis.EvaluationStatistics;
 import edu.uw.neuralccg.model.OracleModel.GoldInputToParser;
 import edu.uw.neuralccg.model.OracleModel.OracleModelFactory;
+import edu.uw.neuralccg.util.ArtifactCache;
+import edu.uw.neuralccg.util.CorpusUtil;
+import edu.uw.neuralccg.util.DataUtil;
+import edu.uw.neuralccg.util.DerivationParser;
 import edu.uw.neuralccg.util.EasySRLUtil;
+import edu.uw.neuralccg.util.OracleParseCache;
 import edu.uw.neuralccg.util.ProgressLogger;
 import edu.uw.neuralccg.util.SerializationUtil;
 
-public class OracleInputsTask implements ITask<Serialized> {
+public class OracleInputsTask implements ITask<GoldSentenceProto> {
     public static final Logger log = LoggerFactory.getLogger(OracleInputsTask.class);
 
+    private static final int CHUNK_SIZE = 100;
+
     @Override
     public String getKey() {
         return "oracle-inputs";
     }
 
+    private static class ParsedChunk {
+        private final List<GoldSentenceProto> inputs = new ArrayList<>();
+        private final EvaluationStatistics allStats = new EvaluationStatistics();
+        private final EvaluationStatistics parsableStats = new EvaluationStatistics();
+    }
+
+    private static class OracleParsers {
+        private final Parser oracleParser;
+        private final DerivationParser derivationParser;
+        private final DependencyEvaluator evaluator;
+
+        private OracleParsers(final Parser oracleParser,
+                              final DerivationParser derivationParser,
+                              final DependencyEvaluator evaluator) {
+            this.oracleParser = oracleParser;
+            this.derivationParser = derivationParser;
+            this.evaluator = evaluator;
+        }
+    }
+
+    private static ParsedChunk parseChunk(final List<GoldSentenceProto> goldChunk,
+                                          final ThreadLocal<OracleParsers> oracleParsers,
+                                          final OracleParseCache cache,
+                                          final ProgressLogger progressLogger) {
+        final OracleParsers parsers = oracleParsers.get();
+        final DependencyEvaluator evaluator = parsers.evaluator;
+        final ParsedChunk chunk = new ParsedChunk();
+        for (final GoldSentenceProto goldSentence : goldChunk) {
+            final GoldInputToParser input = CorpusUtil.toGoldInput(goldSentence);
+            final List<Scored<SyntaxTreeNode>> parses = cache.getOrParse(input, parsers.oracleParser, parsers.derivationParser);
+            chunk.allStats.updateStats(
+                    input.getGoldDependencies(),
+                    input.getGoldCategories(),
+                    parses,
+                    evaluator);
+            if (parses != null && !parses.isEmpty()) {
+                chunk.parsableStats.updateStats(
+                        input.getGoldDependencies(),
+                        input.getGoldCategories(),
+                        parses,
+                        evaluator);
+                input.setOracleParse(parses.get(0).getObject());
+            }
+            chunk.inputs.add(CorpusUtil.toProto(input));
+            progressLogger.maybeLog();
+        }
+        return chunk;
+    }
+
     @Override
-    public Stream<Serialized> run(Stage stage) {
+    public Stream<GoldSentenceProto> run(Stage stage) {
         final File modelDir = new File(
                 stage.getArguments().getString("model_dir"));
-        final Stream<DependencyParse> goldCorpus = stage.read("gold", Serialized.class)
-                .map(SerializationUtil::deserialize);
-
-        final DependencyEvaluator evaluator = stage.read("evaluator", Serialized.class)
+        final Serialized serializedEvaluator = stage.read("evaluator", Serialized.class)
                 .findAny()
-                .map(SerializationUtil::<DependencyEvaluator>deserialize)
                 .get();
 
-        final Collection<Category> categories;
-        try {
-            categories = TaggerEmbeddings.loadCategories(new File(modelDir, "categories"));
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        final OracleModelFactory oracleModelFactory = new OracleModelFactory(categories, evaluator);
-
-        final Parser oracleParser = EasySRLUtil.parserBuilder(stage.getArguments())
-                .modelFactory(oracleModelFactory)
-                .build();
+        try (final ArtifactCache.Handle<List<Category>> categories = ArtifactCache.acquireCategories(modelDir)) {
+            // The oracle model is pure Java, so sentences are parsed in parallel. Each thread gets its own
+            // parsers, which are not thread-safe, and its own evaluator, so that the oracle model's
+            // dependency generation does not contend on the lock of a shared one.
+            final ThreadLocal<OracleParsers> oracleParsers = ThreadLocal.withInitial(() -> {
+                final DependencyEvaluator evaluator = SerializationUtil.deserialize(serializedEvaluator);
+                final Parser oracleParser = EasySRLUtil.parserBuilder(stage.getArguments())
+                        .modelFactory(new OracleModelFactory(categories.get(), evaluator))
+                        .build();
+                return new OracleParsers(
+                        oracleParser,
+                        new DerivationParser(stage.getArguments(), categories.get()),
+                        evaluator);
+            });
+            final OracleParseCache cache = new OracleParseCache(
+                    new File(stage.getArguments().hasPath("oracle_cache_dir") ?
+                            stage.getArguments().getString("oracle_cache_dir") : "data/oracle-cache"),
+                    modelDir,
+                    serializedEvaluator,
+                    stage.getArguments());
+            final int numThreads = stage.getArguments().hasPath("num_threads") ?
+                    stage.getArguments().getInt("num_threads") :
+                    Runtime.getRuntime().availableProcessors();
 
-        final ProgressLogger progressLogger = new ProgressLogger(
-                10000,
-                (int) stage.read("gold", Serialized.class).count(),
-                "Parsed sentence",
-                stage::setProgress);
+            final ProgressLogger progressLogger = new ProgressLogger(
+                    10000,
+                    -1,
+                    "Parsed sentence",
+                    stage::setProgress);
 
-        log.info("Parsing...");
-        final EvaluationStatistics allStats = new EvaluationStatistics();
-        final EvaluationStatistics parsableStats = new EvaluationStatistics();
-        final List<GoldInputToParser> inputs = goldCorpus
-                .map(parse -> new GoldInputToParser(parse, null))
-                .map(input -> Pair.of(input, oracleParser.doParsing(input)))
-                .peek(inputAndParses -> allStats.updateStats(
-                        inputAndParses.first().getGoldDependencies(),
-                        inputAndParses.first().getGoldCategories(),
-                        inputAndParses.second(),
-                        evaluator))
-                .map(inputAndParses -> inputAndParses.second() == null ?
-                        Pair.of(inputAndParses.first(), Collections.<Scored<SyntaxTreeNode>>emptyList()) :
-                        inputAndParses)
-                .peek(inputAndParses -> {
-                    if (!inputAndParses.second().isEmpty()) {
-                        parsableStats.updateStats(
-                                inputAndParses.first().getGoldDependencies(),
-                                inputAndParses.first().getGoldCategories(),
-                                inputAndParses.second(),
-                                evaluator);
-                    }
-                })
-                .peek(inputAndParse -> {
-                    if (!inputAndParse.second().isEmpty()) {
-                        inputAndParse.first().setOracleParse(inputAndParse.second().get(0).getObject());
-                    }
-                })
-                .map(Pair::first)
-                .peek(LambdaUtil.toConsumer(progressLogger::maybeLog))
-                .collect(Collectors.toList());
-        log.info("=====All stats====");
-        allStats.log();
-        log.info("==================");
-        log.info("==Parsable stats==");
-        parsableStats.log();
-        log.info("==================");
-        return inputs.stream().map(SerializationUtil::serialize);
+            log.info("Parsing with {} threads...", numThreads);
+            final EvaluationStatistics allStats = new EvaluationStatistics();
+            final EvaluationStatistics parsableStats = new EvaluationStatistics();
+            final List<GoldSentenceProto> inputs = new ArrayList<>();
+            final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+            try {
+                // Chunks are submitted in order and collected in order, so the output order is unchanged.
+                final List<Future<ParsedChunk>> parsedChunks = DataUtil.lazyPartition(stage.read("gold", GoldSentenceProto.class), CHUNK_SIZE)
+                        .map(goldChunk -> goldChunk.collect(Collectors.toList()))
+                        .map(goldChunk -> executor.submit(() -> parseChunk(goldChunk, oracleParsers, cache, progressLogger)))
+                        .collect(Collectors.toList());
+                for (final Future<ParsedChunk> parsedChunk : parsedChunks) {
+                    final ParsedChunk chunk = parsedChunk.get();
+                    allStats.merge(chunk.allStats);
+                    parsableStats.merge(chunk.parsableStats);
+                    inputs.addAll(chunk.inputs);
+                }
+            } catch (final InterruptedException | ExecutionException e) {
+                throw new RuntimeException(e);
+            } finally {
+                executor.shutdownNow();
+            }
+            cache.log();
+            log.info("=====All stats====");
+            allStats.log();
+            log.info("==================");
+            log.info("==Parsable stats==");
+            parsableStats.log();
+            log.info("==================");
+            return inputs.stream();
+        }
     }
-}
\ No newline at end of file
+}
@@ -15,10 +15,10 @@ import edu.uw.TaggerflowProtos.TaggedSentence;
 import edu.uw.TaggerflowProtos.TaggingInput;
 import edu.uw.easysrl.main.InputReader.InputToParser;
 import edu.uw.easysrl.syntax.tagger.TaggerflowLSTM;
-import edu.uw.neuralccg.SerializationProto.Serialized;
+import edu.uw.neuralccg.CorpusProto.GoldSentenceProto;
+import edu.uw.neuralccg.util.CorpusUtil;
 import edu.uw.neuralccg.util.DataUtil;
 import edu.uw.neuralccg.util.ProgressLogger;
-import edu.uw.neuralccg.util.SerializationUtil;
 
 public class TaggedSentencesTask implements ITask<TaggedSentence> {
     public static final Logger log = LoggerFactory.getLogger(TaggedSentencesTask.class);
@@ -41,8 +41,8 @@ public class TaggedSentencesTask implements ITask<TaggedSentence> {
                 new File(new File(stage.getArguments().getString("model_dir")), "taggerflow"),
                 stage.getArguments().getDouble("supertagger_beam"));
         final Stream<InputToParser> inputs = stage
-                .read("inputs", Serialized.class)
-                .map(SerializationUtil::<InputToParser>deserialize);
+                .read("inputs", GoldSentenceProto.class)
+                .map(CorpusUtil::toGoldInput);
         if (stage.getArguments().hasPath("partition_size")) {
             final ProgressLogger progressLogger = new ProgressLogger(
                     stage.getArguments().getInt("partition_size"),
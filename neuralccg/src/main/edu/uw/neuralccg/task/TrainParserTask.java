@@ -6,32 +6,51 @@ import com.google.common.collect.ImmutableList;
 import com.github.kentonl.pipegraph.core.Stage;
 import com.github.kentonl.pipegraph.task.ITask;
 import com.github.kentonl.pipegraph.util.CollectionUtil;
+import com.github.kentonl.pipegraph.util.LambdaUtil.SideEffect;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Collections;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.Random;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import edu.uw.TaggerflowProtos.TaggedSentence;
 import edu.uw.easysrl.syntax.grammar.Category;
 import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode;
 import edu.uw.easysrl.syntax.parser.Parser;
-import edu.uw.easysrl.syntax.parser.ParserAStar;
-import edu.uw.easysrl.syntax.tagger.TaggerEmbeddings;
 import edu.uw.easysrl.syntax.tagger.TaggerflowLSTM;
 import edu.uw.easysrl.util.Util.Scored;
 import edu.uw.neuralccg.AnalysisProto.EvaluationEvent;
+import edu.uw.neuralccg.AnalysisProto.TrainStatsProto;
+import edu.uw.neuralccg.CorpusProto.GoldSentenceProto;
 import edu.uw.neuralccg.SerializationProto.Serialized;
 import edu.uw.neuralccg.SyntaxProto.CategoryProto;
+import edu.uw.neuralccg.TrainProto.ResumeState;
 import edu.uw.neuralccg.TrainProto.RunConfig;
 import edu.uw.neuralccg.TrainProto.ScorerConfig;
 import edu.uw.neuralccg.TrainProto.TrainConfig;
@@ -39,11 +58,17 @@ import edu.uw.neuralccg.TrainProto.WordEmbedding;
 import edu.uw.neuralccg.evaluation.DependencyEvaluator;
 import edu.uw.neuralccg.evaluation.analysis.EvaluationStatistics;
 import edu.uw.neuralccg.evaluation.analysis.ParserStatistics;
+import edu.uw.neuralccg.grammar.BinaryRuleTable;
 import edu.uw.neuralccg.model.OracleModel.GoldInputToParser;
 import edu.uw.neuralccg.model.TreeFactoredModel.TreeFactoredModelFactory;
 import edu.uw.neuralccg.trainer.Trainer;
+import edu.uw.neuralccg.util.ArtifactCache;
+import edu.uw.neuralccg.util.CorpusUtil;
+import edu.uw.neuralccg.util.DerivationParser;
 import edu.uw.neuralccg.util.EasySRLUtil;
+import edu.uw.neuralccg.util.EmbeddingStore;
 import edu.uw.neuralccg.util.ProgressLogger;
+import edu.uw.neuralccg.util.RandomBlockingQueue;
 import edu.uw.neuralccg.util.SerializationUtil;
 import edu.uw.neuralccg.util.SyntaxUtil;
 
@@ -59,32 +84,138 @@ public class TrainParserTask implements ITask<EvaluationEvent> {
                                                             final String inputsName,
                                                             final String tagsName,
                                                             final List<Category> categories) {
+        return getTaggedInputs(stage, inputsName, tagsName, categories, CorpusUtil::toGoldInput);
+    }
+
+    public static Stream<GoldInputToParser> getTaggedInputs(final Stage stage,
+                                                            final String inputsName,
+                                                            final String tagsName,
+                                                            final List<Category> categories,
+                                                            final Function<GoldSentenceProto, GoldInputToParser> toGoldInput) {
         return CollectionUtil.zip(
-                stage.read(inputsName, Serialized.class)
-                        .map(SerializationUtil::<GoldInputToParser>deserialize),
+                stage.read(inputsName, GoldSentenceProto.class)
+                        .map(toGoldInput),
                 stage.read(tagsName, TaggedSentence.class),
                 (input, taggedSentence) ->
                         new GoldInputToParser(input, TaggerflowLSTM.getScoredCategories(taggedSentence, categories)));
     }
 
+    // Tracks parser statistics since the last training event, so that reported rates reflect recent
+    // throughput rather than the average over the whole epoch.
+    private static class TrainStatsWindow {
+        private final ParserStatistics parseStats;
+        private final Stopwatch timer;
+        private int sentenceCount;
+        private int neuralCount;
+        private int violationChecks;
+        private int violationCount;
+        private int updateCount;
+        private long updateNanos;
+
+        private TrainStatsWindow(final ParserStatistics parseStats) {
+            this.parseStats = parseStats;
+            this.timer = Stopwatch.createUnstarted();
+            reset();
+        }
+
+        private static double maybeDivide(final double x, final double y) {
+            return y == 0 ? 0 : x / y;
+        }
+
+        // Should also be called whenever the parser statistics are cleared.
+        public void reset() {
+            sentenceCount = parseStats.getSentenceCount();
+            neuralCount = parseStats.getNeuralCount();
+            violationChecks = parseStats.getViolationChecks();
+            violationCount = parseStats.getViolationCount();
+            updateCount = parseStats.getUpdateCount();
+            updateNanos = parseStats.getUpdateNanos();
+            timer.reset().start();
+        }
+
+        public long elapsed(final TimeUnit timeUnit) {
+            return timer.elapsed(timeUnit);
+        }
+
+        public TrainStatsProto.Builder toProto() {
+            final double seconds = timer.elapsed(TimeUnit.NANOSECONDS) / 1e9;
+            final TrainStatsProto.Builder builder = TrainStatsProto.newBuilder()
+                    .setSentencesPerSecond(maybeDivide(parseStats.getSentenceCount() - sentenceCount, seconds))
+                    .setNeuralQueriesPerSecond(maybeDivide(parseStats.getNeuralCount() - neuralCount, seconds))
+                    .setUpdateLatency(maybeDivide(
+                            (parseStats.getUpdateNanos() - updateNanos) / 1e6,
+                            parseStats.getUpdateCount() - updateCount))
+                    .setViolationRate(100.0 * maybeDivide(
+                            parseStats.getViolationCount() - violationCount,
+                            parseStats.getViolationChecks() - violationChecks))
+                    .setNativeMemory(TreeFactoredModelFactory.getNativeMemoryUsage());
+            reset();
+            return builder;
+        }
+    }
+
     @Override
     public Stream<EvaluationEvent> run(Stage stage) {
+        // Training runs in the background so that events can be streamed while it progresses. An empty
+        // value marks the end of training.
+        final BlockingQueue<Optional<EvaluationEvent>> events = new LinkedBlockingQueue<>();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final Thread trainThread = new Thread(() -> {
+            try (final ArtifactCache.Handle<DependencyEvaluator> evaluator = ArtifactCache.acquireEvaluator(
+                    stage.read("evaluator", Serialized.class).findAny().get());
+                 final ArtifactCache.Handle<List<Category>> categories = ArtifactCache.acquireCategories(
+                         new File(stage.getArguments().getString("model_dir")));
+                 final ArtifactCache.Handle<Optional<BinaryRuleTable>> ruleTable =
+                         ArtifactCache.acquireBinaryRuleTable(stage.getArguments())) {
+                train(stage, evaluator.get(), categories.get(), ruleTable.get(), event -> events.add(Optional.of(event)));
+            } catch (final Throwable e) {
+                failure.set(e);
+            } finally {
+                events.add(Optional.empty());
+            }
+        });
+        trainThread.start();
+
+        final Iterator<EvaluationEvent> iterator = new Iterator<EvaluationEvent>() {
+            private Optional<EvaluationEvent> next = null;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        next = events.take();
+                    } catch (final InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                if (!next.isPresent() && failure.get() != null) {
+                    throw new RuntimeException("Training failed", failure.get());
+                }
+                return next.isPresent();
+            }
+
+            @Override
+            public EvaluationEvent next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final EvaluationEvent result = next.get();
+                next = null;
+                return result;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false);
+    }
+
+    private void train(final Stage stage,
+                       final DependencyEvaluator evaluator,
+                       final List<Category> categories,
+                       final Optional<BinaryRuleTable> ruleTable,
+                       final Consumer<EvaluationEvent> emit) {
         final File modelDir = new File(
                 stage.getArguments().getString("model_dir"));
         final int numEpochs = stage.getArguments().getInt("epochs");
 
-        final DependencyEvaluator evaluator = stage.read("evaluator", Serialized.class)
-                .findAny()
-                .map(SerializationUtil::<DependencyEvaluator>deserialize)
-                .get();
-
-        final List<Category> categories;
-        try {
-            categories = TaggerEmbeddings.loadCategories(new File(modelDir, "categories"));
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-
         final ParserStatistics parseStats = new ParserStatistics();
         final Trainer trainer = stage
                 .getContext()
@@ -93,6 +224,11 @@ public class TrainParserTask implements ITask<EvaluationEvent> {
         trainer.setStats(parseStats);
         trainer.handleArguments(stage.getArguments());
 
+        final Optional<ResumeState> resumeState = stage.getArguments().hasPath("resume_from") ?
+                Optional.of(readResumeState(new File(stage.getArguments().getString("resume_from")))) :
+                Optional.empty();
+        resumeState.ifPresent(state -> trainer.setState(SerializationUtil.deserialize(state.getTrainerState())));
+
         final String checkpointName = stage.getArguments().hasPath("name") ?
                 stage.getArguments().getString("name") :
                 stage.getName();
@@ -100,137 +236,290 @@ public class TrainParserTask implements ITask<EvaluationEvent> {
         checkpointDir.mkdirs();
 
         final TrainConfig.Builder trainConfig = TrainConfig.newBuilder()
-                .setUpdateMethod(stage.getArguments().getString("update_method"));
+                .setUpdateMethod(stage.getArguments().getString("update_method"))
+                .setSparseUpdates(stage.getArguments().hasPath("sparse_updates") &&
+                        stage.getArguments().getBoolean("sparse_updates"));
 
         synchronized (TreeFactoredModelFactory.class) {
-            final Iterable<CategoryProto> possibleCategories;
-
-            if (stage.getArguments().getBoolean("use_compositional_categories")) {
-                possibleCategories = () -> SyntaxUtil.getPossibleCategories(modelDir)
-                        .stream()
-                        .flatMap(SyntaxUtil::atomicStream)
-                        .distinct()
-                        .sorted(Comparator.comparing(Category::toString))
-                        .map(SyntaxUtil::toProto)
-                        .map(CategoryProto.Builder::build)
-                        .iterator();
+            TreeFactoredModelFactory.initializeCNN(RunConfig.newBuilder()
+                    .setMemory(stage.getArguments().getInt("native_memory"))
+                    .setSeed(stage.getArguments().getInt("seed"))
+                    .build());
+
+            final TreeFactoredModelFactory modelFactory;
+            if (resumeState.isPresent()) {
+                log.info("Resuming at position {} of epoch {} after {} steps.",
+                        resumeState.get().getPosition(),
+                        resumeState.get().getEpoch(),
+                        resumeState.get().getSteps());
+                // Initial embeddings are omitted, since they would overwrite the trained ones.
+                modelFactory = new TreeFactoredModelFactory(
+                        Optional.empty(),
+                        categories,
+                        stage.getArguments(),
+                        false,
+                        true,
+                        Optional.of(evaluator),
+                        new File(resumeState.get().getModelPath()),
+                        Optional.of(trainConfig.build()),
+                        Optional.of(parseStats));
+                modelFactory.loadOptimizerState(new File(resumeState.get().getOptimizerPath()));
             } else {
-                possibleCategories = () -> SyntaxUtil.getPossibleCategories(modelDir)
-                        .stream()
-                        .sorted(Comparator.comparing(Category::toString))
-                        .map(SyntaxUtil::toProto)
-                        .map(CategoryProto.Builder::build)
-                        .iterator();
-            }
+                final Set<Category> possibleCategorySet;
+                try (final ArtifactCache.Handle<Set<Category>> handle = ArtifactCache.acquirePossibleCategories(modelDir)) {
+                    possibleCategorySet = handle.get();
+                }
+                final Iterable<CategoryProto> possibleCategories;
 
-            final ScorerConfig.Builder scorerConfig = ScorerConfig.newBuilder()
-                    .setCategoryDimensions(stage.getArguments().getInt("category_dimensions"))
-                    .setCellDimensions(stage.getArguments().getInt("cell_dimensions"))
-                    .setNumLayers(stage.getArguments().getInt("num_layers"))
-                    .setWordDimensions(stage.getArguments().getInt("word_dimensions"))
-                    .setScoreSupertags(stage.getArguments().getBoolean("score_supertags"))
-                    .setUseNonterminalCategories(stage.getArguments().getBoolean("use_nonterminal_categories"))
-                    .setCoupleGates(stage.getArguments().getBoolean("couple_gates"))
-                    .setUseOutputGate(stage.getArguments().getBoolean("use_output_gate"))
-                    .setUseRecursion(stage.getArguments().getBoolean("use_recursion"))
-                    .setUseCharLstm(stage.getArguments().getBoolean("use_char_lstm"))
-                    .setDropoutProbability(stage.getArguments().getDouble("dropout_probability"));
+                if (stage.getArguments().getBoolean("use_compositional_categories")) {
+                    possibleCategories = () -> possibleCategorySet
+                            .stream()
+                            .flatMap(SyntaxUtil::atomicStream)
+                            .distinct()
+                            .sorted(Comparator.comparing(Category::toString))
+                            .map(SyntaxUtil::toProto)
+                            .map(CategoryProto.Builder::build)
+                            .iterator();
+                } else {
+                    possibleCategories = () -> possibleCategorySet
+                            .stream()
+                            .sorted(Comparator.comparing(Category::toString))
+                            .map(SyntaxUtil::toProto)
+                            .map(CategoryProto.Builder::build)
+                            .iterator();
+                }
 
-            log.info("Initializing from scratch:\n{}", scorerConfig.toString());
+                final ScorerConfig.Builder scorerConfig = ScorerConfig.newBuilder()
+                        .setCategoryDimensions(stage.getArguments().getInt("category_dimensions"))
+                        .setCellDimensions(stage.getArguments().getInt("cell_dimensions"))
+                        .setNumLayers(stage.getArguments().getInt("num_layers"))
+                        .setWordDimensions(stage.getArguments().getInt("word_dimensions"))
+                        .setScoreSupertags(stage.getArguments().getBoolean("score_supertags"))
+                        .setUseNonterminalCategories(stage.getArguments().getBoolean("use_nonterminal_categories"))
+                        .setCoupleGates(stage.getArguments().getBoolean("couple_gates"))
+                        .setUseOutputGate(stage.getArguments().getBoolean("use_output_gate"))
+                        .setUseRecursion(stage.getArguments().getBoolean("use_recursion"))
+                        .setUseCharLstm(stage.getArguments().getBoolean("use_char_lstm"))
+                        .setDropoutProbability(stage.getArguments().getDouble("dropout_probability"));
 
-            scorerConfig.addAllWord(() -> stage
-                    .read("embeddings", WordEmbedding.class)
-                    .map(WordEmbedding::getWord).iterator());
-            scorerConfig.addAllCategory(possibleCategories);
+                log.info("Initializing from scratch:\n{}", scorerConfig.toString());
 
-            log.info("Using {} words.", scorerConfig.getWordCount());
-            log.info("Using {} categories.", scorerConfig.getCategoryCount());
+                // With an embedding store, the native scorer copies the initial embeddings from the mapped
+                // matrix, so only the vocabulary is read here.
+                if (stage.getArguments().hasPath("embedding_store")) {
+                    final EmbeddingStore embeddingStore = EmbeddingStore.openOrConvert(
+                            new File(stage.getArguments().getString("embedding_store")),
+                            new File(stage.getArguments().getString("word_embeddings")),
+                            () -> stage.read("embeddings", WordEmbedding.class));
+                    if (stage.getArguments().hasPath("hot_vocabulary_size")) {
+                        // Only training words and the most frequent words get trainable embeddings. Other
+                        // words are loaded from the store on demand when they are seen.
+                        final Set<String> trainingWords = stage.read("train-inputs", GoldSentenceProto.class)
+                                .map(CorpusUtil::toGoldInput)
+                                .flatMap(input -> input.getInputWords().stream())
+                                .map(word -> word.word)
+                                .collect(Collectors.toSet());
+                        scorerConfig.addAllWord(embeddingStore.getHotWords(trainingWords,
+                                stage.getArguments().getInt("hot_vocabulary_size")))
+                                .setEmbeddingStore(embeddingStore.getDirectory().getAbsolutePath())
+                                .setOverflowWords(stage.getArguments().hasPath("overflow_words") ?
+                                        stage.getArguments().getInt("overflow_words") : 10000);
+                    } else {
+                        scorerConfig.addAllWord(embeddingStore.getWords());
+                    }
+                    trainConfig.setEmbeddingStore(embeddingStore.getDirectory().getAbsolutePath());
+                } else {
+                    scorerConfig.addAllWord(() -> stage
+                            .read("embeddings", WordEmbedding.class)
+                            .map(WordEmbedding::getWord).iterator());
+                    trainConfig.addAllInitialEmbedding(() -> stage
+                            .read("embeddings", WordEmbedding.class).iterator());
+                }
+                scorerConfig.addAllCategory(possibleCategories);
 
-            trainConfig.addAllInitialEmbedding(() -> stage
-                    .read("embeddings", WordEmbedding.class).iterator());
+                log.info("Using {} words.", scorerConfig.getWordCount());
+                log.info("Using {} categories.", scorerConfig.getCategoryCount());
 
-            TreeFactoredModelFactory.initializeCNN(RunConfig.newBuilder()
-                    .setMemory(stage.getArguments().getInt("native_memory"))
-                    .setSeed(stage.getArguments().getInt("seed"))
-                    .build());
+                modelFactory = new TreeFactoredModelFactory(
+                        Optional.empty(),
+                        categories,
+                        stage.getArguments(),
+                        false,
+                        true,
+                        Optional.of(evaluator),
+                        scorerConfig.build(),
+                        Optional.of(trainConfig.build()),
+                        Optional.of(parseStats));
+            }
 
-            final TreeFactoredModelFactory modelFactory = new TreeFactoredModelFactory(
-                    Optional.empty(),
-                    categories,
-                    stage.getArguments(),
-                    false,
-                    true,
-                    Optional.of(evaluator),
-                    scorerConfig.build(),
-                    Optional.of(trainConfig.build()),
-                    Optional.of(parseStats));
-
-            final Parser parser = EasySRLUtil.parserBuilder(new ParserAStar.Builder(modelDir), stage.getArguments())
+            final Parser parser = EasySRLUtil.parserBuilder(stage.getArguments(), ruleTable)
                     .modelFactory(modelFactory)
                     .listeners(ImmutableList.of(trainer, parseStats, modelFactory))
                     .build();
 
-            log.info("Reading training data...");
-            final List<GoldInputToParser> trainInputs =
-                    getTaggedInputs(stage, "train-inputs", "train-tags", categories)
+            final long trainLimit = stage.getArguments().hasPath("train_limit") ?
+                    stage.getArguments().getLong("train_limit") : Long.MAX_VALUE;
+            // Oracle parses are rebuilt from their derivations as the inputs are read.
+            final DerivationParser derivationParser = new DerivationParser(stage.getArguments(), categories);
+            final Supplier<Stream<GoldInputToParser>> trainInputs = () ->
+                    getTaggedInputs(stage, "train-inputs", "train-tags", categories,
+                            proto -> CorpusUtil.toGoldInput(proto, derivationParser))
                             .filter(input -> input.getOracleParse() != null)
-                            .limit(stage.getArguments().hasPath("train_limit") ?
-                                    stage.getArguments().getLong("train_limit") : Long.MAX_VALUE)
-                            .collect(Collectors.toList());
+                            .limit(trainLimit);
 
-            final Random random = new Random(stage.getArguments().getInt("seed"));
-
-            log.info("Found {} train sentences.", trainInputs.size());
+            // Training data is streamed through a bounded shuffle buffer that is filled by a background
+            // thread, so deserialization overlaps with training and the corpus never needs to fit in memory.
+            // Polling only from a full buffer keeps the order deterministic for a given seed.
+            final int shuffleBufferSize = stage.getArguments().hasPath("shuffle_buffer_size") ?
+                    stage.getArguments().getInt("shuffle_buffer_size") : 10000;
+            final Random random = resumeState.isPresent() ?
+                    SerializationUtil.deserialize(resumeState.get().getShuffleRandom()) :
+                    new Random(stage.getArguments().getInt("seed"));
 
             log.info("Training...");
             final int checkpointFrequency = stage.getArguments().getInt("checkpoint_frequency");
             final boolean saveCheckpoints = stage.getArguments().getBoolean("save_checkpoints");
-            int stepCount = 0;
+            int stepCount = resumeState.map(ResumeState::getSteps).orElse(0L).intValue();
+            final int startEpoch = resumeState.map(ResumeState::getEpoch).orElse(0);
+
+            final long eventInterval = stage.getArguments().hasPath("event_interval") ?
+                    stage.getArguments().getLong("event_interval") : 60;
 
             final ProgressLogger progressLogger = new ProgressLogger(
                     10000,
-                    trainInputs.size() * numEpochs,
+                    -1,
                     "Trained sentence",
                     stage::setProgress);
 
-            for (int i = 0; i < numEpochs; i++) {
+            final TrainStatsWindow window = new TrainStatsWindow(parseStats);
+            for (int i = startEpoch; i < numEpochs; i++) {
                 parseStats.clear();
+                window.reset();
                 final EvaluationStatistics trainStats = new EvaluationStatistics();
                 final Stopwatch epochTime = Stopwatch.createStarted();
-                Collections.shuffle(trainInputs, random);
-                for (final GoldInputToParser trainInput : trainInputs) {
-                    trainStats.getParseTime().start();
-                    modelFactory.setTrainer(Optional.of(trainer));
-                    final List<Scored<SyntaxTreeNode>> result = parser.doParsing(trainInput);
-                    modelFactory.setTrainer(Optional.empty());
-                    trainStats.getParseTime().stop();
-                    trainStats.updateStats(
-                            trainInput.getGoldDependencies(),
-                            trainInput.getGoldCategories(),
-                            result,
-                            evaluator);
-                    if (saveCheckpoints && stepCount > 0 && stepCount % checkpointFrequency == 0) {
-                        final File checkpointFile = new File(checkpointDir, stepCount + ".pb");
-                        log.info("Saving checkpoint to {}", checkpointFile.getAbsolutePath());
-                        modelFactory.saveCheckpoint(checkpointFile);
+                final Serialized epochRandom = SerializationUtil.serialize(random);
+                // When resuming, the shuffled order is replayed up to the saved position without training.
+                final long skipCount = i == startEpoch ? resumeState.map(ResumeState::getPosition).orElse(0L) : 0;
+                final RandomBlockingQueue<GoldInputToParser> shuffleBuffer =
+                        new RandomBlockingQueue<>(shuffleBufferSize, shuffleBufferSize, random);
+                final SideEffect stopReading = shuffleBuffer.offerOnce(trainInputs);
+                int epochCount = 0;
+                try {
+                    for (final GoldInputToParser trainInput : (Iterable<GoldInputToParser>) shuffleBuffer.pollStream()::iterator) {
+                        if (epochCount < skipCount) {
+                            epochCount++;
+                            continue;
+                        }
+                        trainStats.getParseTime().start();
+                        modelFactory.setTrainer(Optional.of(trainer));
+                        final List<Scored<SyntaxTreeNode>> result = parser.doParsing(trainInput);
+                        modelFactory.setTrainer(Optional.empty());
+                        trainStats.getParseTime().stop();
+                        trainStats.updateStats(
+                                trainInput.getGoldDependencies(),
+                                trainInput.getGoldCategories(),
+                                result,
+                                evaluator);
+                        if (saveCheckpoints && stepCount > 0 && stepCount % checkpointFrequency == 0) {
+                            final File checkpointFile = new File(checkpointDir, stepCount + ".pb");
+                            log.info("Saving checkpoint to {}", checkpointFile.getAbsolutePath());
+                            // Checkpoints are renamed into place, since evaluation starts as soon as they appear.
+                            final File tempFile = new File(checkpointDir, stepCount + ".pb.tmp");
+                            modelFactory.saveCheckpoint(tempFile);
+                            try {
+                                Files.move(tempFile.toPath(), checkpointFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                            } catch (final IOException e) {
+                                throw new RuntimeException(e);
+                            }
+                        }
+                        stepCount++;
+                        epochCount++;
+                        if (saveCheckpoints && stepCount % checkpointFrequency == 0) {
+                            saveResumeState(checkpointDir, modelFactory, ResumeState.newBuilder()
+                                    .setShuffleRandom(epochRandom)
+                                    .setTrainerState(SerializationUtil.serialize(trainer.getState()))
+                                    .setEpoch(i)
+                                    .setPosition(epochCount)
+                                    .setSteps(stepCount));
+                        }
+                        progressLogger.maybeLog();
+                        if (window.elapsed(TimeUnit.SECONDS) >= eventInterval) {
+                            emit.accept(trainEvent(checkpointName, stepCount, i, window, trainStats));
+                        }
                     }
-                    stepCount++;
-                    progressLogger.maybeLog();
+                } finally {
+                    stopReading.perform();
                 }
-                log.info("Finished training epoch {} in {} seconds.", i, epochTime.elapsed(TimeUnit.SECONDS));
+                log.info("Finished training epoch {} on {} sentences in {} seconds.",
+                        i, epochCount, epochTime.elapsed(TimeUnit.SECONDS));
                 log.info("====Parser stats=====");
                 parseStats.log();
                 log.info("=====================");
                 log.info("=====Train stats=====");
                 trainStats.log();
                 log.info("=====================");
+                emit.accept(trainEvent(checkpointName, stepCount, i, window, trainStats));
             }
-            try {
-                Thread.sleep(Long.MAX_VALUE);
-            } catch (final InterruptedException e) {
-                throw new RuntimeException(e);
-            }
-            return Stream.empty();
         }
     }
+
+    private static ResumeState readResumeState(final File stateFile) {
+        try (final InputStream in = new FileInputStream(stateFile)) {
+            return ResumeState.parseFrom(in);
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Keeps a single rolling snapshot for resuming training. The model and optimizer files are written
+    // before the state that refers to them is atomically replaced, so a crash at any point leaves a
+    // consistent snapshot behind.
+    private static void saveResumeState(final File checkpointDir,
+                                        final TreeFactoredModelFactory modelFactory,
+                                        final ResumeState.Builder state) {
+        final File stateFile = new File(checkpointDir, "resume.state");
+        final Optional<ResumeState> previousState = stateFile.exists() ?
+                Optional.of(readResumeState(stateFile)) : Optional.empty();
+
+        final File modelFile = new File(checkpointDir, "resume-" + state.getSteps() + ".model");
+        final File optimizerFile = new File(checkpointDir, "resume-" + state.getSteps() + ".optimizer");
+        modelFactory.saveCheckpoint(modelFile);
+        modelFactory.saveOptimizerState(optimizerFile);
+        state.setModelPath(modelFile.getAbsolutePath())
+                .setOptimizerPath(optimizerFile.getAbsolutePath());
+
+        final File tempFile = new File(checkpointDir, "resume.state.tmp");
+        try (final OutputStream out = new FileOutputStream(tempFile)) {
+            state.build().writeTo(out);
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+        try {
+            Files.move(tempFile.toPath(), stateFile.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+        log.info("Saved resumable state to {}", stateFile.getAbsolutePath());
+
+        previousState.ifPresent(previous -> Stream.of(previous.getModelPath(), previous.getOptimizerPath())
+                .filter(path -> !path.equals(state.getModelPath()) && !path.equals(state.getOptimizerPath()))
+                .map(File::new)
+                .forEach(File::delete));
+    }
+
+    private static EvaluationEvent trainEvent(final String name,
+                                              final int steps,
+                                              final int epoch,
+                                              final TrainStatsWindow window,
+                                              final EvaluationStatistics trainStats) {
+        return EvaluationEvent.newBuilder()
+                .setName(name)
+                .setTimestamp(System.currentTimeMillis())
+                .setSteps(steps)
+                .setTrainStats(window.toProto()
+                        .setEpoch(epoch)
+                        .setF1(trainStats.toProto().getF1()))
+                .build();
+    }
 }
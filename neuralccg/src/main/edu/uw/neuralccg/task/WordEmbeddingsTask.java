@@ -6,7 +6,6 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
-import java.util.Arrays;
 import java.util.stream.Stream;
 
 import edu.uw.neuralccg.TrainProto.WordEmbedding;
@@ -23,9 +22,11 @@ public class WordEmbeddingsTask implements ITask<WordEmbedding> {
 
     private static WordEmbedding getWordEmbedding(String line) {
         final String[] splits = line.split(" ");
-        return WordEmbedding.newBuilder()
-                .setWord(splits[0].trim())
-                .addAllValue(() -> Arrays.stream(splits).skip(1).map(Float::parseFloat).iterator()).build();
+        final WordEmbedding.Builder embedding = WordEmbedding.newBuilder().setWord(splits[0].trim());
+        for (int i = 1; i < splits.length; i++) {
+            embedding.addValue(Float.parseFloat(splits[i]));
+        }
+        return embedding.build();
     }
 
     @Override
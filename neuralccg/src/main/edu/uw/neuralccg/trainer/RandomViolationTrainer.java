@@ -1,5 +1,6 @@
 package edu.uw.neuralccg.trainer;
 
+import java.io.Serializable;
 import java.util.List;
 import java.util.Random;
 
@@ -21,6 +22,16 @@ public class RandomViolationTrainer extends ViolationTrainer {
         return "random-violation";
     }
 
+    @Override
+    public Serializable getState() {
+        return random;
+    }
+
+    @Override
+    public void setState(final Serializable state) {
+        random = (Random) state;
+    }
+
     protected double computeWeight(int i) {
         return 1.0;
     }
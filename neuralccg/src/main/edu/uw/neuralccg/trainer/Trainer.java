@@ -2,6 +2,7 @@ package edu.uw.neuralccg.trainer;
 
 import com.typesafe.config.Config;
 
+import java.io.Serializable;
 import java.util.List;
 
 import edu.uw.easysrl.main.InputReader.InputWord;
@@ -24,6 +25,15 @@ public abstract class Trainer implements IRegisterable, ParserListener {
         // Do nothing.
     }
 
+    // Any state beyond the arguments that is needed to resume training identically.
+    public Serializable getState() {
+        return null;
+    }
+
+    public void setState(final Serializable state) {
+        // Do nothing.
+    }
+
     public void setModel(final TrainableModel model) {
         this.model = model;
     }
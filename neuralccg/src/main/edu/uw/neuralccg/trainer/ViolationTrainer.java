@@ -34,6 +34,7 @@ public abstract class ViolationTrainer extends Trainer {
         final double violation = maxScoreAndLoss.getCost()
                 + TrainableAgendaItem.getLoss(maxScoreAndLoss)
                 - maxCorrectScore.getCost();
+        getStats().addViolation(violation >= 0);
         if (violation >= 0) {
             if (!handleViolation(maxScoreAndLoss, maxCorrectScore, violation)) {
                 return false;
@@ -0,0 +1,137 @@
+package edu.uw.neuralccg.util;
+
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+import com.typesafe.config.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import edu.uw.easysrl.syntax.grammar.Category;
+import edu.uw.easysrl.syntax.tagger.TaggerEmbeddings;
+import edu.uw.neuralccg.SerializationProto.Serialized;
+import edu.uw.neuralccg.evaluation.DependencyEvaluator;
+import edu.uw.neuralccg.grammar.BinaryRuleTable;
+
+// Process-wide cache of immutable artifacts that several stages load, such as the evaluator and the
+// categories of a model directory. Stage outputs are keyed by a hash of their contents and files by
+// their path, size and modification time, so that stages running concurrently in one JVM share a
+// single copy.
+//
+// Entries are reference-counted and dropped when the last handle is closed. Values must not be
+// modified by their users.
+public class ArtifactCache {
+    private static final Map<List<Object>, Entry<?>> entries = new HashMap<>();
+
+    private ArtifactCache() {
+    }
+
+    private static class Entry<T> {
+        private final Supplier<T> value;
+        private int references;
+
+        private Entry(final Supplier<T> loader) {
+            this.value = Suppliers.memoize(loader::get);
+            this.references = 0;
+        }
+    }
+
+    public static class Handle<T> implements AutoCloseable {
+        private final List<Object> key;
+        private final Entry<T> entry;
+        private boolean closed;
+
+        private Handle(final List<Object> key, final Entry<T> entry) {
+            this.key = key;
+            this.entry = entry;
+            this.closed = false;
+        }
+
+        // Loads the value if this is the first handle to use it. Concurrent loads of the same key wait for
+        // each other.
+        public T get() {
+            return entry.value.get();
+        }
+
+        @Override
+        public void close() {
+            synchronized (entries) {
+                if (!closed) {
+                    closed = true;
+                    if (--entry.references == 0) {
+                        entries.remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> Handle<T> acquire(final List<Object> key, final Supplier<T> loader) {
+        synchronized (entries) {
+            final Entry<T> entry = (Entry<T>) entries.computeIfAbsent(key, k -> new Entry<>(loader));
+            entry.references++;
+            return new Handle<>(key, entry);
+        }
+    }
+
+    // DependencyEvaluator guards its dependency generator, so one copy can serve every stage.
+    public static Handle<DependencyEvaluator> acquireEvaluator(final Serialized serializedEvaluator) {
+        return acquire(
+                Arrays.asList("evaluator", Hashing.murmur3_128().hashBytes(serializedEvaluator.getValue().toByteArray())),
+                () -> SerializationUtil.<DependencyEvaluator>deserialize(serializedEvaluator));
+    }
+
+    public static Handle<List<Category>> acquireCategories(final File modelDir) {
+        final File categoriesFile = new File(modelDir, "categories");
+        return acquire(Arrays.asList("categories", fileIdentity(categoriesFile)), () -> {
+            try {
+                return ImmutableList.copyOf(TaggerEmbeddings.loadCategories(categoriesFile));
+            } catch (final IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    public static Handle<Set<Category>> acquirePossibleCategories(final File modelDir) {
+        return acquire(Arrays.asList("possible-categories",
+                fileIdentity(new File(modelDir, "categories")),
+                fileIdentity(new File(modelDir, "binaryRules")),
+                fileIdentity(new File(modelDir, "unaryRules")),
+                fileIdentity(new File(modelDir, "seenRules"))),
+                () -> ImmutableSet.copyOf(SyntaxUtil.getPossibleCategories(modelDir)));
+    }
+
+    // Empty unless binary_rule_table is set, since the table covers every pair of possible categories and
+    // only pays off for decoders that parse many sentences.
+    public static Handle<Optional<BinaryRuleTable>> acquireBinaryRuleTable(final Config arguments) {
+        if (!arguments.hasPath("binary_rule_table") || !arguments.getBoolean("binary_rule_table")) {
+            return acquire(Arrays.asList("binary-rule-table"), Optional::empty);
+        }
+        final File modelDir = new File(arguments.getString("model_dir"));
+        return acquire(Arrays.asList("binary-rule-table",
+                fileIdentity(new File(modelDir, "categories")),
+                fileIdentity(new File(modelDir, "binaryRules")),
+                fileIdentity(new File(modelDir, "unaryRules")),
+                fileIdentity(new File(modelDir, "seenRules"))),
+                () -> Optional.of(BinaryRuleTable.load(modelDir)));
+    }
+
+    // Missing files have a size and modification time of 0.
+    private static String fileIdentity(final File file) {
+        try {
+            return file.getCanonicalPath() + ":" + file.length() + ":" + file.lastModified();
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
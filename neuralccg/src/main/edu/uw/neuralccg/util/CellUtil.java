@@ -3,9 +3,16 @@ package edu.uw.neuralccg.util;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ListMultimap;
 
+import java.util.AbstractCollection;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 
 import edu.uw.easysrl.syntax.model.AgendaItem;
 import edu.uw.easysrl.syntax.parser.ChartCell;
@@ -52,6 +59,115 @@ public class CellUtil {
         }
     }
 
+    // Keeps the beamSize entries with the highest cost, with at most one entry per key. Costs are kept in a
+    // min-heap parallel to the entries, so the worst entry can be evicted as soon as a better one arrives.
+    // Meant for beam search, where a cell is complete before its entries are combined, so evicted entries
+    // are never expanded. Rejections and evictions are reported through indicatePruning.
+    public static class TopKChartCell extends ChartCell {
+        private final AgendaItem[] entries;
+        private final Object[] keys;
+        private final double[] costs;
+        private final Map<Object, Integer> keyToIndex;
+        private final SideEffect indicatePruning;
+        private int size;
+
+        public TopKChartCell(final int beamSize, final SideEffect indicatePruning) {
+            this.entries = new AgendaItem[beamSize];
+            this.keys = new Object[beamSize];
+            this.costs = new double[beamSize];
+            this.keyToIndex = new HashMap<>();
+            this.indicatePruning = indicatePruning;
+            this.size = 0;
+        }
+
+        @Override
+        public Collection<AgendaItem> getEntries() {
+            return Collections.unmodifiableList(Arrays.asList(entries).subList(0, size));
+        }
+
+        @Override
+        public boolean add(final Object key, final AgendaItem newEntry) {
+            final double cost = newEntry.getCost();
+            final Integer existing = keyToIndex.get(key);
+            if (existing != null) {
+                if (cost <= costs[existing]) {
+                    return false;
+                }
+                set(existing, key, newEntry, cost);
+                siftDown(existing);
+                return true;
+            }
+            if (size < entries.length) {
+                set(size, key, newEntry, cost);
+                siftUp(size++);
+                return true;
+            }
+            indicatePruning.perform();
+            if (entries.length == 0 || cost <= costs[0]) {
+                return false;
+            }
+            keyToIndex.remove(keys[0]);
+            set(0, key, newEntry, cost);
+            siftDown(0);
+            return true;
+        }
+
+        private void set(final int index, final Object key, final AgendaItem entry, final double cost) {
+            entries[index] = entry;
+            keys[index] = key;
+            costs[index] = cost;
+            keyToIndex.put(key, index);
+        }
+
+        private void swap(final int i, final int j) {
+            final AgendaItem entry = entries[i];
+            final Object key = keys[i];
+            final double cost = costs[i];
+            set(i, keys[j], entries[j], costs[j]);
+            set(j, key, entry, cost);
+        }
+
+        private void siftUp(int index) {
+            while (index > 0 && costs[(index - 1) / 2] > costs[index]) {
+                swap(index, (index - 1) / 2);
+                index = (index - 1) / 2;
+            }
+        }
+
+        private void siftDown(int index) {
+            while (true) {
+                final int left = 2 * index + 1;
+                final int right = left + 1;
+                int smallest = index;
+                if (left < size && costs[left] < costs[smallest]) {
+                    smallest = left;
+                }
+                if (right < size && costs[right] < costs[smallest]) {
+                    smallest = right;
+                }
+                if (smallest == index) {
+                    return;
+                }
+                swap(index, smallest);
+                index = smallest;
+            }
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        public static ChartCellFactory factory(final int beamSize, final SideEffect indicatePruning) {
+            return new ChartCellFactory() {
+                @Override
+                public ChartCell make() {
+                    return new TopKChartCell(beamSize, indicatePruning);
+                }
+            };
+        }
+    }
+
     public static class NbestChartCell extends ChartCell {
         private final ListMultimap<Object, AgendaItem> keyToEntries = ArrayListMultimap.create();
         private final int nbest;
@@ -95,4 +211,126 @@ public class CellUtil {
             };
         }
     }
+
+    // Keeps the entries with the highest cost for each key, within nbestBeam of the best entry of the key.
+    // Like NbestChartCell, each key keeps up to nbest + 1 entries. Each key has a small array sorted by
+    // decreasing cost, and entries that fall out of the beam or the limit are dropped as soon as a better
+    // entry arrives.
+    public static class SortedNbestChartCell extends ChartCell {
+        private final Map<Object, Entries> keyToEntries = new HashMap<>();
+        private final int maxEntries;
+        private final double logBeam;
+        private final Collection<AgendaItem> entriesView;
+        private int size = 0;
+
+        private static class Entries {
+            private AgendaItem[] items = new AgendaItem[2];
+            private double[] costs = new double[2];
+            private int size = 0;
+        }
+
+        public SortedNbestChartCell(final int nbest, final double nbestBeam) {
+            this.maxEntries = nbest + 1;
+            this.logBeam = Math.log(nbestBeam);
+            this.entriesView = new AbstractCollection<AgendaItem>() {
+                @Override
+                public Iterator<AgendaItem> iterator() {
+                    return new EntriesIterator(keyToEntries.values().iterator());
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+
+        private static class EntriesIterator implements Iterator<AgendaItem> {
+            private final Iterator<Entries> keys;
+            private Entries current = null;
+            private int index = 0;
+
+            private EntriesIterator(final Iterator<Entries> keys) {
+                this.keys = keys;
+            }
+
+            @Override
+            public boolean hasNext() {
+                while (current == null || index >= current.size) {
+                    if (!keys.hasNext()) {
+                        return false;
+                    }
+                    current = keys.next();
+                    index = 0;
+                }
+                return true;
+            }
+
+            @Override
+            public AgendaItem next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.items[index++];
+            }
+        }
+
+        @Override
+        public Collection<AgendaItem> getEntries() {
+            return entriesView;
+        }
+
+        @Override
+        public boolean add(final Object key, final AgendaItem newEntry) {
+            final double cost = newEntry.getCost();
+            final Entries entries = keyToEntries.computeIfAbsent(key, k -> new Entries());
+            if (entries.size > 0 && cost < entries.costs[0] + logBeam) {
+                return false;
+            }
+            int position = entries.size;
+            while (position > 0 && entries.costs[position - 1] < cost) {
+                position--;
+            }
+            if (position >= maxEntries) {
+                return false;
+            }
+
+            // Entries that are no longer within the limit or the beam of a new best entry are dropped.
+            int newSize = Math.min(entries.size + 1, maxEntries);
+            if (position == 0) {
+                while (newSize > 1 && entries.costs[newSize - 2] < cost + logBeam) {
+                    newSize--;
+                }
+            }
+            if (newSize > entries.items.length) {
+                final int capacity = Math.min(2 * entries.items.length, maxEntries);
+                entries.items = Arrays.copyOf(entries.items, capacity);
+                entries.costs = Arrays.copyOf(entries.costs, capacity);
+            }
+            System.arraycopy(entries.items, position, entries.items, position + 1, newSize - 1 - position);
+            System.arraycopy(entries.costs, position, entries.costs, position + 1, newSize - 1 - position);
+            entries.items[position] = newEntry;
+            entries.costs[position] = cost;
+            if (entries.size > newSize) {
+                Arrays.fill(entries.items, newSize, entries.size, null);
+            }
+            size += newSize - entries.size;
+            entries.size = newSize;
+            return true;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        public static ChartCellFactory factory(final int nbest, final double nbestBeam) {
+            return new ChartCellFactory() {
+                @Override
+                public ChartCell make() {
+                    return new SortedNbestChartCell(nbest, nbestBeam);
+                }
+            };
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,146 @@
+package edu.uw.neuralccg.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.stream.Stream;
+
+// Watches a directory tree for completed checkpoints, which are "<steps>.pb" files in the directory of
+// their run. Checkpoints must appear atomically, e.g. by renaming a temporary file, since they are
+// reported as soon as they are created. Pending checkpoints are returned newest first. When skipping
+// superseded checkpoints, taking a checkpoint also drops the older pending checkpoints of the same run.
+public class CheckpointWatcher implements Closeable {
+    public static final Logger log = LoggerFactory.getLogger(CheckpointWatcher.class);
+
+    private final WatchService watchService;
+    private final boolean skipSuperseded;
+    private final Set<File> seen;
+    private final PriorityQueue<PendingCheckpoint> pending;
+
+    // The ordering is fixed when the checkpoint is found, since modification times can change.
+    private static class PendingCheckpoint {
+        private final File file;
+        private final long timestamp;
+        private final long steps;
+
+        private PendingCheckpoint(final File file) {
+            this.file = file;
+            this.timestamp = file.lastModified();
+            this.steps = getSteps(file);
+        }
+    }
+
+    public CheckpointWatcher(final File directory, final boolean skipSuperseded) {
+        this.skipSuperseded = skipSuperseded;
+        this.seen = new HashSet<>();
+        this.pending = new PriorityQueue<>(Comparator.<PendingCheckpoint>comparingLong(checkpoint -> checkpoint.timestamp)
+                .thenComparingLong(checkpoint -> checkpoint.steps)
+                .reversed());
+        try {
+            this.watchService = FileSystems.getDefault().newWatchService();
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+        addDirectory(directory.toPath());
+    }
+
+    public static boolean isCheckpoint(final File file) {
+        return file.getName().matches("[0-9]+\\.pb") && file.isFile();
+    }
+
+    public static long getSteps(final File checkpoint) {
+        return Long.parseLong(checkpoint.getName().substring(0, checkpoint.getName().length() - ".pb".length()));
+    }
+
+    // Registers the directory before scanning it, so that no checkpoint can be missed in between.
+    private void addDirectory(final Path directory) {
+        try {
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE);
+            try (final Stream<Path> children = Files.list(directory)) {
+                children.forEach(this::addPath);
+            }
+        } catch (final IOException e) {
+            // The directory may have been removed since it was found.
+            log.warn("Unable to watch {}", directory, e);
+        }
+    }
+
+    private void addPath(final Path path) {
+        final File file = path.toFile();
+        if (file.isDirectory()) {
+            addDirectory(path);
+        } else if (isCheckpoint(file) && seen.add(file)) {
+            pending.add(new PendingCheckpoint(file));
+        }
+    }
+
+    private void processEvents(final WatchKey key) {
+        final Path directory = (Path) key.watchable();
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // Events were lost, so rescan everything under this directory.
+                addDirectory(directory);
+            } else {
+                addPath(directory.resolve((Path) event.context()));
+            }
+        }
+        key.reset();
+    }
+
+    // Blocks until a new checkpoint is available.
+    public File take() {
+        try {
+            WatchKey key;
+            while ((key = watchService.poll()) != null) {
+                processEvents(key);
+            }
+            while (true) {
+                while (pending.isEmpty()) {
+                    processEvents(watchService.take());
+                }
+                final PendingCheckpoint checkpoint = pending.poll();
+                if (!checkpoint.file.exists()) {
+                    continue;
+                }
+                if (skipSuperseded) {
+                    final Iterator<PendingCheckpoint> iterator = pending.iterator();
+                    while (iterator.hasNext()) {
+                        final PendingCheckpoint other = iterator.next();
+                        if (other.file.getParentFile().equals(checkpoint.file.getParentFile()) && other.steps < checkpoint.steps) {
+                            log.info("Skipping superseded checkpoint at {}", other.file.getAbsolutePath());
+                            iterator.remove();
+                        }
+                    }
+                }
+                return checkpoint.file;
+            }
+        } catch (final InterruptedException | ClosedWatchServiceException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            watchService.close();
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package edu.uw.neuralccg.util;
+
+import com.google.common.base.Strings;
+
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import edu.uw.easysrl.corpora.CCGBankDependencies.DependencyParse;
+import edu.uw.easysrl.dependencies.ResolvedDependency;
+import edu.uw.easysrl.dependencies.SRLFrame;
+import edu.uw.easysrl.main.InputReader.InputWord;
+import edu.uw.easysrl.syntax.grammar.Category;
+import edu.uw.easysrl.syntax.grammar.Preposition;
+import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode;
+import edu.uw.easysrl.syntax.tagger.Tagger.ScoredCategory;
+import edu.uw.neuralccg.CorpusProto.DependencyProto;
+import edu.uw.neuralccg.CorpusProto.GoldSentenceProto;
+import edu.uw.neuralccg.CorpusProto.SupertagsProto;
+import edu.uw.neuralccg.CorpusProto.WordProto;
+import edu.uw.neuralccg.SerializationProto.Serialized;
+import edu.uw.neuralccg.model.OracleModel.GoldInputToParser;
+
+// Converts corpus objects to and from GoldSentenceProto. Records in the legacy Java-serialized format
+// are still accepted when reading. Oracle parses are stored as derivations and only rebuilt when a
+// DerivationParser is given.
+public class CorpusUtil {
+    private CorpusUtil() {
+    }
+
+    public static GoldSentenceProto toProto(final DependencyParse parse) {
+        return toProto(new GoldInputToParser(parse, null));
+    }
+
+    public static GoldSentenceProto toProto(final GoldInputToParser input) {
+        final GoldSentenceProto.Builder proto = GoldSentenceProto.newBuilder();
+        for (final InputWord word : input.getInputWords()) {
+            proto.addWord(WordProto.newBuilder()
+                    .setWord(word.word)
+                    .setPos(Strings.nullToEmpty(word.pos))
+                    .setNer(Strings.nullToEmpty(word.ner)));
+        }
+        input.getGoldCategories().forEach(category -> proto.addGoldCategory(category.toString()));
+        for (final ResolvedDependency dependency : input.getGoldDependencies()) {
+            proto.addGoldDependency(DependencyProto.newBuilder()
+                    .setHead(dependency.getHead())
+                    .setArgument(dependency.getArgument())
+                    .setCategory(dependency.getCategory().toString())
+                    .setArgNumber(dependency.getArgNumber()));
+        }
+        if (input.isAlreadyTagged()) {
+            proto.setTagged(true);
+            for (final List<ScoredCategory> wordSupertags : input.getInputSupertags()) {
+                final SupertagsProto.Builder supertags = SupertagsProto.newBuilder();
+                for (final ScoredCategory supertag : wordSupertags) {
+                    supertags.addCategory(supertag.getCategory().toString()).addScore(supertag.getScore());
+                }
+                proto.addSupertags(supertags);
+            }
+        }
+        if (input.getOracleParse() != null) {
+            proto.setOracleDerivation(SyntaxUtil.toChart(input.getOracleParse()));
+        }
+        return proto.build();
+    }
+
+    public static GoldInputToParser toGoldInput(final GoldSentenceProto proto) {
+        return toGoldInput(proto, Optional.empty());
+    }
+
+    public static GoldInputToParser toGoldInput(final GoldSentenceProto proto, final DerivationParser derivationParser) {
+        return toGoldInput(proto, Optional.of(derivationParser));
+    }
+
+    private static GoldInputToParser toGoldInput(final GoldSentenceProto proto,
+                                                 final Optional<DerivationParser> derivationParser) {
+        if (!proto.getLegacyValue().isEmpty()) {
+            final Serializable legacy = SerializationUtil.<Serializable>deserialize(
+                    Serialized.newBuilder().setValue(proto.getLegacyValue()).build());
+            if (legacy instanceof DependencyParse) {
+                return new GoldInputToParser((DependencyParse) legacy, null);
+            } else {
+                return (GoldInputToParser) legacy;
+            }
+        }
+
+        final List<InputWord> words = proto.getWordList().stream()
+                .map(word -> new InputWord(word.getWord(), Strings.emptyToNull(word.getPos()), Strings.emptyToNull(word.getNer())))
+                .collect(Collectors.toList());
+        final List<Category> goldCategories = proto.getGoldCategoryList().stream()
+                .map(Category::valueOf)
+                .collect(Collectors.toList());
+        final Set<ResolvedDependency> goldDependencies = new HashSet<>();
+        for (final DependencyProto dependency : proto.getGoldDependencyList()) {
+            goldDependencies.add(new ResolvedDependency(
+                    dependency.getHead(),
+                    Category.valueOf(dependency.getCategory()),
+                    dependency.getArgNumber(),
+                    dependency.getArgument(),
+                    SRLFrame.NONE,
+                    Preposition.NONE));
+        }
+        final List<List<ScoredCategory>> supertags = proto.getTagged() ?
+                proto.getSupertagsList().stream()
+                        .map(wordSupertags -> IntStream.range(0, wordSupertags.getCategoryCount())
+                                .mapToObj(i -> new ScoredCategory(
+                                        Category.valueOf(wordSupertags.getCategory(i)),
+                                        wordSupertags.getScore(i)))
+                                .collect(Collectors.toList()))
+                        .collect(Collectors.toList()) :
+                null;
+        final SyntaxTreeNode oracleParse = proto.hasOracleDerivation() ?
+                derivationParser.map(parser -> parser.parse(words, goldCategories, proto.getOracleDerivation())).orElse(null) :
+                null;
+        return new GoldInputToParser(words, goldCategories, supertags, goldDependencies, oracleParse);
+    }
+}
@@ -0,0 +1,43 @@
+package edu.uw.neuralccg.util;
+
+import com.typesafe.config.Config;
+
+import java.util.Collection;
+import java.util.List;
+
+import edu.uw.easysrl.main.InputReader.InputWord;
+import edu.uw.easysrl.syntax.grammar.Category;
+import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode;
+import edu.uw.easysrl.syntax.parser.Parser;
+import edu.uw.easysrl.util.Util.Scored;
+import edu.uw.neuralccg.SyntaxProto.ChartProto;
+import edu.uw.neuralccg.model.DerivationModel.DerivationInput;
+import edu.uw.neuralccg.model.DerivationModel.DerivationModelFactory;
+
+// Rebuilds parses from derivations stored as charts, so that only the derivation needs to be persisted.
+// Not thread-safe, like the parser it wraps.
+public class DerivationParser {
+    private final Parser parser;
+
+    public DerivationParser(final Config arguments, final Collection<Category> lexicalCategories) {
+        this.parser = EasySRLUtil.parserBuilder(arguments)
+                .modelFactory(new DerivationModelFactory(lexicalCategories))
+                .nBest(1)
+                .build();
+    }
+
+    // Null if the grammar or the parser settings no longer allow the derivation.
+    public SyntaxTreeNode parse(final List<InputWord> words,
+                                final List<Category> leafCategories,
+                                final ChartProto derivation) {
+        if (words.size() > parser.getMaxSentenceLength()) {
+            return null;
+        }
+        final List<Scored<SyntaxTreeNode>> parses = parser.doParsing(new DerivationInput(words, leafCategories, derivation));
+        if (parses == null || parses.isEmpty()) {
+            return null;
+        }
+        final SyntaxTreeNode parse = parses.get(0).getObject();
+        return SyntaxUtil.toChart(parse).equals(derivation) ? parse : null;
+    }
+}
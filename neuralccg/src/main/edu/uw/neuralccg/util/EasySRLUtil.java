@@ -7,11 +7,16 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
 
+import edu.uw.easysrl.syntax.grammar.Category;
+import edu.uw.easysrl.syntax.grammar.Combinator.RuleProduction;
 import edu.uw.easysrl.syntax.model.SupertagFactoredModel.SupertagFactoredModelFactory;
 import edu.uw.easysrl.syntax.parser.ParserAStar;
 import edu.uw.easysrl.syntax.parser.ParserBuilder;
 import edu.uw.easysrl.syntax.tagger.Tagger;
+import edu.uw.neuralccg.grammar.BinaryRuleTable;
 import edu.uw.neuralccg.grammar.NormalFormCustom;
 
 public class EasySRLUtil {
@@ -41,10 +46,39 @@ public class EasySRLUtil {
                 .normalForm(new NormalFormCustom());
     }
 
+    // A* parsers that look up binary rules in a precomputed table. Callers keep the handle of the table
+    // from ArtifactCache until they are done with the parsers.
+    public static class TabledParserBuilder extends ParserAStar.Builder {
+        private final BinaryRuleTable ruleTable;
+
+        public TabledParserBuilder(final File modelDir, final BinaryRuleTable ruleTable) {
+            super(modelDir);
+            this.ruleTable = ruleTable;
+        }
+
+        @Override
+        protected ParserAStar build2() {
+            return new ParserAStar(this) {
+                @Override
+                protected List<RuleProduction> getRules(final Category left, final Category right) {
+                    final List<RuleProduction> productions = ruleTable.get(left, right);
+                    return productions != null ? productions : super.getRules(left, right);
+                }
+            };
+        }
+    }
+
     public static ParserAStar.Builder parserBuilder(final Config arguments) {
         return parserBuilder(new ParserAStar.Builder(new File(arguments.getString("model_dir"))), arguments);
     }
 
+    public static ParserAStar.Builder parserBuilder(final Config arguments, final Optional<BinaryRuleTable> ruleTable) {
+        final File modelDir = new File(arguments.getString("model_dir"));
+        return parserBuilder(ruleTable.isPresent() ?
+                new TabledParserBuilder(modelDir, ruleTable.get()) :
+                new ParserAStar.Builder(modelDir), arguments);
+    }
+
     public static ParserBuilder backoffParserBuilder(final Config arguments) {
         final ParserBuilder<?> builder = new ParserAStar.Builder(new File(arguments.getString("model_dir")));
         return builder
@@ -0,0 +1,212 @@
+package edu.uw.neuralccg.util;
+
+import com.google.common.base.Preconditions;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import edu.uw.neuralccg.TrainProto.WordEmbedding;
+
+// Word embeddings converted once into a binary vocabulary and a float32 matrix. The native scorer maps
+// the matrix, so initial embeddings never cross JNI, and only the vocabulary is loaded here.
+//
+// Both files are little-endian. The vocabulary is the row count and dimension as int32s, followed by
+// each word as an int32 byte length and UTF-8 bytes. The matrix has one row per word, in order. A store
+// converted by openOrConvert also records the path, size and modification time of its source.
+public class EmbeddingStore {
+    public static final Logger log = LoggerFactory.getLogger(EmbeddingStore.class);
+
+    public static final String VOCABULARY_FILE = "vocabulary.bin";
+    public static final String MATRIX_FILE = "embeddings.f32";
+    public static final String SOURCE_FILE = "source";
+
+    private final File directory;
+    private final List<String> words;
+    private final int dimension;
+
+    private EmbeddingStore(final File directory) throws IOException {
+        this.directory = directory;
+        final ByteBuffer vocabulary = ByteBuffer.wrap(Files.readAllBytes(new File(directory, VOCABULARY_FILE).toPath()))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        final int size = vocabulary.getInt();
+        this.dimension = vocabulary.getInt();
+        final List<String> words = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            final byte[] word = new byte[vocabulary.getInt()];
+            vocabulary.get(word);
+            words.add(new String(word, StandardCharsets.UTF_8));
+        }
+        this.words = Collections.unmodifiableList(words);
+        Preconditions.checkState(new File(directory, MATRIX_FILE).length() == 4L * size * dimension,
+                "Truncated embeddings in %s", directory);
+    }
+
+    public static EmbeddingStore open(final File directory) {
+        try {
+            return new EmbeddingStore(directory);
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // The vocabulary is written last, so its presence means that the store is complete.
+    public static boolean exists(final File directory) {
+        return new File(directory, VOCABULARY_FILE).exists();
+    }
+
+    // Converts the embeddings again if the source changed since the store was written.
+    public static EmbeddingStore openOrConvert(final File directory,
+                                               final File source,
+                                               final Supplier<Stream<WordEmbedding>> embeddings) {
+        final String fingerprint = fingerprint(source);
+        final File sourceFile = new File(directory, SOURCE_FILE);
+        if (!exists(directory) || !fingerprint.equals(readSource(sourceFile))) {
+            log.info("Converting word embeddings from {} to {}", source.getAbsolutePath(), directory.getAbsolutePath());
+            sourceFile.delete();
+            write(directory, embeddings.get().iterator());
+            final File tempSourceFile = new File(directory, SOURCE_FILE + ".tmp");
+            try {
+                Files.write(tempSourceFile.toPath(), fingerprint.getBytes(StandardCharsets.UTF_8));
+                Files.move(tempSourceFile.toPath(), sourceFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (final IOException e) {
+                tempSourceFile.delete();
+                throw new RuntimeException(e);
+            }
+        }
+        return open(directory);
+    }
+
+    private static String fingerprint(final File source) {
+        try {
+            return source.getCanonicalPath() + ":" + source.length() + ":" + source.lastModified();
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Null if the store has no recorded source.
+    private static String readSource(final File sourceFile) {
+        if (!sourceFile.exists()) {
+            return null;
+        }
+        try {
+            return new String(Files.readAllBytes(sourceFile.toPath()), StandardCharsets.UTF_8);
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void write(final File directory, final Iterator<WordEmbedding> embeddings) {
+        directory.mkdirs();
+        final File matrixFile = new File(directory, MATRIX_FILE);
+        final File vocabularyFile = new File(directory, VOCABULARY_FILE);
+        // An existing store is incomplete until the new vocabulary is moved into place.
+        vocabularyFile.delete();
+        final File tempMatrixFile = new File(directory, MATRIX_FILE + ".tmp");
+        final File tempVocabularyFile = new File(directory, VOCABULARY_FILE + ".tmp");
+        final List<String> words = new ArrayList<>();
+        int dimension = -1;
+        try {
+            try (final OutputStream out = new BufferedOutputStream(new FileOutputStream(tempMatrixFile))) {
+                ByteBuffer row = null;
+                while (embeddings.hasNext()) {
+                    final WordEmbedding embedding = embeddings.next();
+                    if (row == null) {
+                        dimension = embedding.getValueCount();
+                        row = ByteBuffer.allocate(4 * dimension).order(ByteOrder.LITTLE_ENDIAN);
+                    }
+                    Preconditions.checkArgument(embedding.getValueCount() == dimension,
+                            "Expected %s dimensions for %s", dimension, embedding.getWord());
+                    row.clear();
+                    for (int i = 0; i < dimension; i++) {
+                        row.putFloat(embedding.getValue(i));
+                    }
+                    out.write(row.array());
+                    words.add(embedding.getWord());
+                }
+            }
+            try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempVocabularyFile)))) {
+                writeInt(out, words.size());
+                writeInt(out, Math.max(dimension, 0));
+                for (final String word : words) {
+                    final byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+                    writeInt(out, bytes.length);
+                    out.write(bytes);
+                }
+            }
+            Files.move(tempMatrixFile.toPath(), matrixFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tempVocabularyFile.toPath(), vocabularyFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (final IOException e) {
+            tempMatrixFile.delete();
+            tempVocabularyFile.delete();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void writeInt(final DataOutputStream out, final int value) throws IOException {
+        out.writeInt(Integer.reverseBytes(value));
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public List<String> getWords() {
+        return words;
+    }
+
+    // Words that are either required or among the first topK of the store, which is assumed to be
+    // ordered by frequency, in store order.
+    public List<String> getHotWords(final Set<String> required, final int topK) {
+        return IntStream.range(0, words.size())
+                .filter(i -> i < topK || required.contains(words.get(i)))
+                .mapToObj(words::get)
+                .collect(Collectors.toList());
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    // Reads a single row, without mapping the matrix, which may be larger than a buffer can address.
+    public void getRow(final int index, final float[] row) {
+        Preconditions.checkElementIndex(index, words.size());
+        final ByteBuffer buffer = ByteBuffer.allocate(4 * dimension).order(ByteOrder.LITTLE_ENDIAN);
+        try (final RandomAccessFile matrixFile = new RandomAccessFile(new File(directory, MATRIX_FILE), "r")) {
+            final FileChannel channel = matrixFile.getChannel();
+            final long offset = 4L * index * dimension;
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new IOException("Truncated embeddings in " + directory);
+                }
+            }
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+        buffer.flip();
+        buffer.asFloatBuffer().get(row, 0, dimension);
+    }
+}
@@ -0,0 +1,112 @@
+package edu.uw.neuralccg.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import edu.uw.neuralccg.AnalysisProto.DistributionProto;
+import edu.uw.neuralccg.AnalysisProto.HistogramProto;
+
+// Histogram of non-negative longs in the style of HdrHistogram. Values below 2^SUB_BUCKET_BITS are counted
+// exactly, and every larger power of two is split into 2^SUB_BUCKET_BITS equal buckets, so percentiles are
+// within about 3% of the true value. Histograms can be merged, including across processes.
+public class LogLinearHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int NUM_BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts;
+    private final AtomicLong total;
+    private final AtomicLong max;
+
+    public LogLinearHistogram() {
+        this.counts = new AtomicLongArray(NUM_BUCKETS);
+        this.total = new AtomicLong(0);
+        this.max = new AtomicLong(0);
+    }
+
+    private static int bucket(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    private static long upperBound(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int shift = (bucket >> SUB_BUCKET_BITS) - 1;
+        final long subBucket = bucket & (SUB_BUCKETS - 1);
+        return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+
+    public void record(final long value) {
+        counts.incrementAndGet(bucket(Math.max(value, 0)));
+        total.incrementAndGet();
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    public void merge(final LogLinearHistogram other) {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            final long count = other.counts.get(i);
+            if (count > 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+        total.addAndGet(other.total.get());
+        max.accumulateAndGet(other.max.get(), Math::max);
+    }
+
+    public long getCount() {
+        return total.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    // Returns an upper bound on the given percentile, which is never more than the maximum.
+    public long getPercentile(final double percentile) {
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total.get()));
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public DistributionProto.Builder toDistribution(final String label, final double scale) {
+        return DistributionProto.newBuilder()
+                .setLabel(label)
+                .setCount(getCount())
+                .setP50(getPercentile(50) * scale)
+                .setP90(getPercentile(90) * scale)
+                .setP99(getPercentile(99) * scale)
+                .setMax(getMax() * scale);
+    }
+
+    public HistogramProto toProto() {
+        final HistogramProto.Builder proto = HistogramProto.newBuilder().setMax(max.get());
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            final long count = counts.get(i);
+            if (count > 0) {
+                proto.addBucket(i).addCount(count);
+            }
+        }
+        return proto.build();
+    }
+
+    public static LogLinearHistogram fromProto(final HistogramProto proto) {
+        final LogLinearHistogram histogram = new LogLinearHistogram();
+        for (int i = 0; i < proto.getBucketCount(); i++) {
+            histogram.counts.set(proto.getBucket(i), proto.getCount(i));
+            histogram.total.addAndGet(proto.getCount(i));
+        }
+        histogram.max.set(proto.getMax());
+        return histogram;
+    }
+}
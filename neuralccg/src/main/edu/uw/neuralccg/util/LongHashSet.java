@@ -0,0 +1,81 @@
+package edu.uw.neuralccg.util;
+
+import java.util.Arrays;
+
+// Open-addressing hash set of primitive longs, for membership tests in hot loops without boxing.
+public class LongHashSet {
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] table;
+    private int size;
+    private boolean containsEmpty;
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    public LongHashSet(final int expectedSize) {
+        int capacity = 16;
+        while (capacity < 2 * expectedSize) {
+            capacity <<= 1;
+        }
+        this.table = new long[capacity];
+        Arrays.fill(table, EMPTY);
+        this.size = 0;
+        this.containsEmpty = false;
+    }
+
+    private static int hash(final long value) {
+        final long mixed = value * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+
+    private int indexOf(final long value) {
+        final int mask = table.length - 1;
+        int index = hash(value) & mask;
+        while (table[index] != EMPTY && table[index] != value) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    public boolean add(final long value) {
+        if (value == EMPTY) {
+            final boolean added = !containsEmpty;
+            containsEmpty = true;
+            return added;
+        }
+        final int index = indexOf(value);
+        if (table[index] == value) {
+            return false;
+        }
+        table[index] = value;
+        size++;
+        if (2 * size > table.length) {
+            rehash();
+        }
+        return true;
+    }
+
+    public boolean contains(final long value) {
+        if (value == EMPTY) {
+            return containsEmpty;
+        }
+        return table[indexOf(value)] == value;
+    }
+
+    public int size() {
+        return size + (containsEmpty ? 1 : 0);
+    }
+
+    private void rehash() {
+        final long[] oldTable = table;
+        table = new long[2 * oldTable.length];
+        Arrays.fill(table, EMPTY);
+        for (final long value : oldTable) {
+            if (value != EMPTY) {
+                table[indexOf(value)] = value;
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package edu.uw.neuralccg.util;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import com.typesafe.config.Config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.uw.easysrl.dependencies.ResolvedDependency;
+import edu.uw.easysrl.main.InputReader.InputWord;
+import edu.uw.easysrl.syntax.grammar.Category;
+import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode;
+import edu.uw.easysrl.syntax.parser.Parser;
+import edu.uw.easysrl.util.Util.Scored;
+import edu.uw.neuralccg.CorpusProto.OracleParsesProto;
+import edu.uw.neuralccg.SerializationProto.Serialized;
+import edu.uw.neuralccg.model.OracleModel.GoldInputToParser;
+
+// On-disk cache of oracle parses, keyed by a hash of the gold sentence and everything else that can
+// affect the oracle: the model directory, its categories, the evaluator and the parser settings.
+// Entries are the derivations of the parses, stored one file per sentence and sharded by hash prefix,
+// and the parses are rebuilt from them with a DerivationParser.
+public class OracleParseCache {
+    public static final Logger log = LoggerFactory.getLogger(OracleParseCache.class);
+
+    private static final int FORMAT_VERSION = 2;
+
+    private final File directory;
+    private final HashCode context;
+    private final AtomicInteger hits;
+    private final AtomicInteger misses;
+
+    public OracleParseCache(final File directory,
+                            final File modelDir,
+                            final Serialized evaluator,
+                            final Config arguments) {
+        this.directory = directory;
+        this.hits = new AtomicInteger(0);
+        this.misses = new AtomicInteger(0);
+        final Hasher hasher = Hashing.sha256().newHasher()
+                .putInt(FORMAT_VERSION)
+                .putString(modelDir.getAbsolutePath(), StandardCharsets.UTF_8)
+                .putBytes(evaluator.getValue().toByteArray());
+        try {
+            hasher.putBytes(Files.readAllBytes(new File(modelDir, "categories").toPath()));
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+        for (final String argument : new String[]{"max_sentence_length", "n_best", "max_chart_size", "max_agenda_size"}) {
+            hasher.putString(argument + "=" + arguments.getValue(argument).render(), StandardCharsets.UTF_8);
+        }
+        this.context = hasher.hash();
+        directory.mkdirs();
+    }
+
+    private HashCode hash(final GoldInputToParser input) {
+        final Hasher hasher = Hashing.sha256().newHasher()
+                .putBytes(context.asBytes())
+                .putBoolean(input.isAlreadyTagged());
+        for (final InputWord word : input.getInputWords()) {
+            hasher.putString(word.word, StandardCharsets.UTF_8).putChar('\t');
+        }
+        for (final Category category : input.getGoldCategories()) {
+            hasher.putString(category.toString(), StandardCharsets.UTF_8).putChar('\t');
+        }
+        input.getGoldDependencies()
+                .stream()
+                .map(ResolvedDependency::toString)
+                .sorted()
+                .forEach(dependency -> hasher.putString(dependency, StandardCharsets.UTF_8).putChar('\t'));
+        return hasher.hash();
+    }
+
+    private File getFile(final HashCode hash) {
+        final String name = hash.toString();
+        return new File(new File(directory, name.substring(0, 2)), name);
+    }
+
+    private static OracleParsesProto read(final File file) {
+        try {
+            return OracleParsesProto.parseFrom(Files.readAllBytes(file.toPath()));
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static OracleParsesProto toProto(final List<Scored<SyntaxTreeNode>> parses) {
+        final OracleParsesProto.Builder proto = OracleParsesProto.newBuilder();
+        if (parses != null) {
+            for (final Scored<SyntaxTreeNode> parse : parses) {
+                proto.addParse(SyntaxUtil.toChart(parse.getObject())).addScore(parse.getScore());
+            }
+        }
+        return proto.build();
+    }
+
+    // Null if any derivation can no longer be rebuilt.
+    private static List<Scored<SyntaxTreeNode>> rebuild(final GoldInputToParser input,
+                                                       final OracleParsesProto entry,
+                                                       final DerivationParser derivationParser) {
+        final List<Scored<SyntaxTreeNode>> parses = new ArrayList<>();
+        for (int i = 0; i < entry.getParseCount(); i++) {
+            final SyntaxTreeNode parse = derivationParser.parse(
+                    input.getInputWords(), input.getGoldCategories(), entry.getParse(i));
+            if (parse == null) {
+                return null;
+            }
+            parses.add(new Scored<>(parse, entry.getScore(i)));
+        }
+        return parses;
+    }
+
+    private static void write(final File file, final OracleParsesProto entry) {
+        file.getParentFile().mkdirs();
+        // Written to a unique temporary file first, so that concurrent writers and readers never see a
+        // partial entry.
+        final File tempFile = new File(file.getParentFile(), file.getName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            Files.write(tempFile.toPath(), entry.toByteArray());
+            Files.move(tempFile.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (final IOException e) {
+            tempFile.delete();
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Returns the same result as parsing with the oracle parser, which is only run on cache misses.
+    public List<Scored<SyntaxTreeNode>> getOrParse(final GoldInputToParser input,
+                                                   final Parser oracleParser,
+                                                   final DerivationParser derivationParser) {
+        final File file = getFile(hash(input));
+        if (file.exists()) {
+            final OracleParsesProto entry = read(file);
+            if (entry.getParseCount() == 0) {
+                hits.incrementAndGet();
+                return null;
+            }
+            final List<Scored<SyntaxTreeNode>> parses = rebuild(input, entry, derivationParser);
+            if (parses != null) {
+                hits.incrementAndGet();
+                return parses;
+            }
+        }
+        misses.incrementAndGet();
+        final List<Scored<SyntaxTreeNode>> parses = oracleParser.doParsing(input);
+        write(file, toProto(parses));
+        return parses;
+    }
+
+    public void log() {
+        log.info("Oracle parse cache at {}: {} hits, {} misses.", directory.getAbsolutePath(), hits.get(), misses.get());
+    }
+}
@@ -1,13 +1,17 @@
 package edu.uw.neuralccg.util;
 
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Random;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import com.github.kentonl.pipegraph.util.LambdaUtil.SideEffect;
 
@@ -19,6 +23,8 @@ public class RandomBlockingQueue<E> {
     private final Random random;
     private final int minSize;
     private int size;
+    private boolean finished;
+    private RuntimeException failure;
 
     public RandomBlockingQueue(int minSize, int maxSize, Random random) {
         this.lock = new ReentrantLock();
@@ -28,6 +34,8 @@ public class RandomBlockingQueue<E> {
         this.random = random;
         this.minSize = minSize;
         this.size = 0;
+        this.finished = false;
+        this.failure = null;
     }
 
     public void offer(E element) throws InterruptedException {
@@ -47,14 +55,46 @@ public class RandomBlockingQueue<E> {
         }
     }
 
+    // Indicate that no more elements will be offered. Remaining elements can still be polled,
+    // after which poll() returns null.
+    public void finish() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            finished = true;
+            enoughElements.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void fail(final RuntimeException e) {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            failure = e;
+            finished = true;
+            enoughElements.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns null only if the queue is finished and empty.
     @SuppressWarnings("unchecked")
     public E poll() throws InterruptedException {
         final ReentrantLock lock = this.lock;
         lock.lock();
         try {
-            while (size < minSize) {
+            while (size < minSize && !finished) {
                 enoughElements.await();
             }
+            if (failure != null) {
+                throw failure;
+            }
+            if (size == 0) {
+                return null;
+            }
             final int randomIndex = random.nextInt(size);
             final E randomElement = (E) elements[randomIndex];
             elements[randomIndex] = elements[--size];
@@ -91,4 +131,64 @@ public class RandomBlockingQueue<E> {
             }
         };
     }
-}
\ No newline at end of file
+
+    // Stream every element of a single pass over the supplied stream, using a background thread to
+    // read ahead. Return a callback to terminate the offering thread.
+    public SideEffect offerOnce(final Supplier<Stream<E>> supplier) {
+        final AtomicBoolean keepStreaming = new AtomicBoolean(true);
+        final Thread thread = new Thread(() -> {
+            try {
+                final Iterator<E> iterator = supplier.get().iterator();
+                while (keepStreaming.get() && iterator.hasNext()) {
+                    this.offer(iterator.next());
+                }
+                this.finish();
+            } catch (final InterruptedException e) {
+                // Do nothing if we are asked to terminate.
+            } catch (final RuntimeException e) {
+                this.fail(e);
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return () -> {
+            keepStreaming.set(false);
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (final InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        };
+    }
+
+    // Poll elements until the queue is finished and empty.
+    public Stream<E> pollStream() {
+        final Iterator<E> iterator = new Iterator<E>() {
+            private E next = null;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        next = poll();
+                    } catch (final InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public E next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final E result = next;
+                next = null;
+                return result;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false);
+    }
+}
@@ -0,0 +1,189 @@
+package edu.uw.neuralccg.util;
+
+import com.google.common.base.Preconditions;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.Parser;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+// File of serialized records with a header and an offset index, which is memory-mapped for reading. The
+// record count is in the header and records can be read or sliced by index without decoding the rest
+// of the file.
+//
+// Layout: magic, version, record count, index offset and segment size, then the records, then the start
+// and end offset of each record. Records never cross a segment boundary (the writer pads instead), so
+// each record is a zero-copy slice of a single mapping even when the file is larger than a ByteBuffer
+// can address. Ends are stored because the next record may start after padding.
+public class RecordFile implements Closeable {
+    private static final int MAGIC = 0x4e435246;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8;
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    private final RandomAccessFile file;
+    private final List<MappedByteBuffer> segments;
+    private final LongBuffer offsets;
+    private final int count;
+    private final long segmentSize;
+
+    private RecordFile(final File path) throws IOException {
+        this.file = new RandomAccessFile(path, "r");
+        final FileChannel channel = file.getChannel();
+        final ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        Preconditions.checkState(header.getInt() == MAGIC, "Not a record file: %s", path);
+        Preconditions.checkState(header.getInt() == VERSION, "Unsupported record file version: %s", path);
+        this.count = Math.toIntExact(header.getLong());
+        final long indexOffset = header.getLong();
+        this.segmentSize = header.getLong();
+        this.offsets = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, 16L * count)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .asLongBuffer();
+        this.segments = new ArrayList<>();
+        for (long start = 0; start < indexOffset; start += segmentSize) {
+            segments.add(channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(segmentSize, indexOffset - start)));
+        }
+    }
+
+    public static RecordFile open(final File path) {
+        try {
+            return new RecordFile(path);
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Writes to a temporary file first, so that readers never see a partial record file.
+    public static int write(final File path, final Iterator<? extends Message> records) {
+        return write(path, records, SEGMENT_SIZE);
+    }
+
+    // Smaller segments are only useful to test padding.
+    static int write(final File path, final Iterator<? extends Message> records, final long segmentSize) {
+        final File tempFile = new File(path.getAbsolutePath() + ".tmp");
+        final int count;
+        try (final RandomAccessFile out = new RandomAccessFile(tempFile, "rw")) {
+            out.setLength(0);
+            final FileChannel channel = out.getChannel();
+            final List<Long> recordOffsets = new ArrayList<>();
+            long position = HEADER_SIZE;
+            while (records.hasNext()) {
+                final ByteBuffer record = ByteBuffer.wrap(records.next().toByteArray());
+                Preconditions.checkArgument(record.remaining() <= segmentSize, "Record too large: %s bytes", record.remaining());
+                final long segmentEnd = (position / segmentSize + 1) * segmentSize;
+                if (position + record.remaining() > segmentEnd) {
+                    position = segmentEnd;
+                }
+                recordOffsets.add(position);
+                while (record.hasRemaining()) {
+                    position += channel.write(record, position);
+                }
+                recordOffsets.add(position);
+            }
+            count = recordOffsets.size() / 2;
+
+            final ByteBuffer index = ByteBuffer.allocate(8 * recordOffsets.size()).order(ByteOrder.LITTLE_ENDIAN);
+            recordOffsets.forEach(index::putLong);
+            index.flip();
+            final long indexOffset = position;
+            while (index.hasRemaining()) {
+                position += channel.write(index, position);
+            }
+
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putLong(count)
+                    .putLong(indexOffset)
+                    .putLong(segmentSize);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+        } catch (final IOException e) {
+            tempFile.delete();
+            throw new RuntimeException(e);
+        }
+        try {
+            Files.move(tempFile.toPath(), path.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+        return count;
+    }
+
+    public static int write(final File path, final Stream<? extends Message> records) {
+        return write(path, records.iterator());
+    }
+
+    // Reads only the header.
+    public static int count(final File path) {
+        try (final RecordFile recordFile = open(path)) {
+            return recordFile.size();
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // Read-only view of the encoded record, which is not copied.
+    public ByteBuffer getBytes(final int index) {
+        Preconditions.checkElementIndex(index, count);
+        final long start = offsets.get(2 * index);
+        final long end = offsets.get(2 * index + 1);
+        final ByteBuffer segment = segments.get((int) (start / segmentSize)).duplicate();
+        segment.position((int) (start % segmentSize));
+        segment.limit((int) (start % segmentSize + (end - start)));
+        return segment.slice().asReadOnlyBuffer();
+    }
+
+    public <M extends Message> M get(final int index, final Parser<M> parser) {
+        try {
+            return parser.parseFrom(CodedInputStream.newInstance(getBytes(index)));
+        } catch (final InvalidProtocolBufferException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Records in [from, to), still encoded.
+    public Stream<ByteBuffer> slice(final int from, final int to) {
+        Preconditions.checkPositionIndexes(from, to, count);
+        return IntStream.range(from, to).mapToObj(this::getBytes);
+    }
+
+    public <M extends Message> Stream<M> stream(final int from, final int to, final Parser<M> parser) {
+        Preconditions.checkPositionIndexes(from, to, count);
+        return IntStream.range(from, to).mapToObj(i -> get(i, parser));
+    }
+
+    public <M extends Message> Stream<M> stream(final Parser<M> parser) {
+        return stream(0, count, parser);
+    }
+
+    @Override
+    public void close() {
+        try {
+            file.close();
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -5,11 +5,14 @@ import com.google.common.collect.Sets;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import edu.uw.neuralccg.AnalysisProto.RetrievalCountsProto;
 import edu.uw.neuralccg.TableProto.Row;
 import edu.uw.neuralccg.TableProto.Table;
 
@@ -20,12 +23,59 @@ public class RetrievalStatistics {
 	private final AtomicInteger	gold;
 	private final AtomicInteger	predicted;
 
+	// Reusable buffers for encoded items, one per thread.
+	private static final ThreadLocal<Scratch>	scratch	= ThreadLocal.withInitial(Scratch::new);
+
+	public static class Scratch {
+		private long[]	gold		= new long[64];
+		private long[]	predicted	= new long[64];
+		private int		goldSize;
+		private int		predictedSize;
+
+		private static long[] append(long[] values, int size, long value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, 2 * size);
+			}
+			values[size] = value;
+			return values;
+		}
+
+		public void addGold(long value) {
+			gold = append(gold, goldSize++, value);
+		}
+
+		public void addPredicted(long value) {
+			predicted = append(predicted, predictedSize++, value);
+		}
+
+		public void clear() {
+			goldSize = 0;
+			predictedSize = 0;
+		}
+	}
+
 	public RetrievalStatistics() {
 		correct = new AtomicInteger(0);
 		gold = new AtomicInteger(0);
 		predicted = new AtomicInteger(0);
 	}
 
+	public static RetrievalStatistics fromCounts(RetrievalCountsProto counts) {
+		final RetrievalStatistics stats = new RetrievalStatistics();
+		stats.correct.set(counts.getCorrect());
+		stats.gold.set(counts.getGold());
+		stats.predicted.set(counts.getPredicted());
+		return stats;
+	}
+
+	public RetrievalCountsProto toCounts() {
+		return RetrievalCountsProto.newBuilder()
+				.setCorrect(correct.get())
+				.setGold(gold.get())
+				.setPredicted(predicted.get())
+				.build();
+	}
+
 	private static double maybeDivide(double x, double y) {
 		return y == 0 ? 0 : x / y;
 	}
@@ -88,6 +138,49 @@ public class RetrievalStatistics {
 		predicted.addAndGet(other.predicted.get());
 	}
 
+	// Sorts and deduplicates the first size values in place, returning the number of unique values.
+	private static int sortUnique(long[] values, int size) {
+		Arrays.sort(values, 0, size);
+		int unique = 0;
+		for (int i = 0; i < size; i++) {
+			if (unique == 0 || values[i] != values[unique - 1]) {
+				values[unique++] = values[i];
+			}
+		}
+		return unique;
+	}
+
+	// Counts items encoded as longs by sort-merge, without allocating. The buffers are reordered.
+	public RetrievalStatistics update(Scratch items) {
+		final int goldSize = sortUnique(items.gold, items.goldSize);
+		final int predictedSize = sortUnique(items.predicted, items.predictedSize);
+		int numCorrect = 0;
+		for (int i = 0, j = 0; i < goldSize && j < predictedSize;) {
+			if (items.gold[i] < items.predicted[j]) {
+				i++;
+			} else if (items.gold[i] > items.predicted[j]) {
+				j++;
+			} else {
+				numCorrect++;
+				i++;
+				j++;
+			}
+		}
+		gold.addAndGet(goldSize);
+		predicted.addAndGet(predictedSize);
+		correct.addAndGet(numCorrect);
+		return this;
+	}
+
+	// Items are equal exactly when their encodings are equal.
+	public <T> RetrievalStatistics update(Stream<T> goldStream, Stream<T> predictedStream, ToLongFunction<T> encode) {
+		final Scratch items = scratch.get();
+		items.clear();
+		goldStream.forEach(item -> items.addGold(encode.applyAsLong(item)));
+		predictedStream.forEach(item -> items.addPredicted(encode.applyAsLong(item)));
+		return update(items);
+	}
+
 	public <T> RetrievalStatistics update(Stream<T> goldStream, Stream<T> predictedStream) {
 		final Set<T> goldSet = goldStream.collect(Collectors.toSet());
 		final Set<T> predictedSet = predictedStream.collect(Collectors.toSet());
@@ -2,19 +2,26 @@ package edu.uw.neuralccg.util;
 
 import com.google.common.collect.ListMultimap;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import edu.uw.easysrl.dependencies.ResolvedDependency;
@@ -23,16 +30,22 @@ import edu.uw.easysrl.syntax.grammar.Combinator;
 import edu.uw.easysrl.syntax.grammar.Combinator.RuleProduction;
 import edu.uw.easysrl.syntax.grammar.SeenRules;
 import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode;
+import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode.SyntaxTreeNodeLeaf;
 import edu.uw.easysrl.syntax.parser.AbstractParser;
 import edu.uw.easysrl.syntax.parser.AbstractParser.UnaryRule;
 import edu.uw.easysrl.syntax.tagger.TaggerEmbeddings;
 import edu.uw.neuralccg.SyntaxProto.CategoryProto;
+import edu.uw.neuralccg.SyntaxProto.ChartProto;
 import edu.uw.neuralccg.SyntaxProto.ParseProto;
 import edu.uw.neuralccg.SyntaxProto.RuleTypeProto;
 import edu.uw.neuralccg.SyntaxProto.SlashProto;
 import com.github.kentonl.pipegraph.util.CollectionUtil;
 
 public class SyntaxUtil {
+    public static final Logger log = LoggerFactory.getLogger(SyntaxUtil.class);
+
+    public static final String POSSIBLE_CATEGORIES_FILE = "possibleCategories";
+
     private SyntaxUtil() {
     }
 
@@ -67,57 +80,120 @@ public class SyntaxUtil {
                 && CollectionUtil.zip(parse1.getChildren().stream(), parse2.getChildren().stream(), SyntaxUtil::parsesEqual).allMatch(Boolean::booleanValue);
     }
 
+    // The result is persisted in the model directory, together with the sizes and modification times of the
+    // files it was computed from, so that it is only recomputed when they change.
     public static Set<Category> getPossibleCategories(final File modelDir) {
+        final File possibleCategoriesFile = new File(modelDir, POSSIBLE_CATEGORIES_FILE);
+        final String fingerprint = Stream.of("categories", "binaryRules", "unaryRules", "seenRules")
+                .map(name -> new File(modelDir, name))
+                .map(file -> file.getName() + ":" + file.length() + ":" + file.lastModified())
+                .collect(Collectors.joining(" "));
         try {
+            if (possibleCategoriesFile.exists()) {
+                final List<String> lines = Files.readAllLines(possibleCategoriesFile.toPath(), StandardCharsets.UTF_8);
+                if (!lines.isEmpty() && lines.get(0).equals(fingerprint)) {
+                    return lines.stream()
+                            .skip(1)
+                            .map(Category::valueOf)
+                            .collect(Collectors.toSet());
+                }
+            }
+
             final File lexicalCategoryFile = new File(modelDir, "categories");
-            final File binaryRulesFile = new File(modelDir, "binaryRules");
             final File unaryRulesFile = new File(modelDir, "unaryRules");
             final Collection<Category> lexicalCategories = TaggerEmbeddings.loadCategories(lexicalCategoryFile);
-            final List<Combinator> combinators = new ArrayList<>(Combinator.STANDARD_COMBINATORS);
-            if (binaryRulesFile.exists()) {
-                combinators.addAll(Combinator.loadSpecialCombinators(binaryRulesFile));
-            }
+            final List<Combinator> combinators = loadCombinators(modelDir);
             final ListMultimap<Category, UnaryRule> unaryRules = AbstractParser.loadUnaryRules(unaryRulesFile);
             final SeenRules seenRules = new SeenRules(new File(modelDir, "seenRules"), lexicalCategories);
-            return getPossibleCategories(lexicalCategories, combinators, unaryRules, Optional.of(seenRules));
+            final Set<Category> possibleCategories =
+                    getPossibleCategories(lexicalCategories, combinators, unaryRules, Optional.of(seenRules));
+
+            // Written to a temporary file first, since concurrent stages may read it.
+            final File tempFile = new File(modelDir, POSSIBLE_CATEGORIES_FILE + "." + UUID.randomUUID() + ".tmp");
+            try {
+                Files.write(tempFile.toPath(),
+                        (Iterable<String>) Stream.concat(
+                                Stream.of(fingerprint),
+                                possibleCategories.stream().map(Category::toString).sorted())::iterator,
+                        StandardCharsets.UTF_8);
+                Files.move(tempFile.toPath(), possibleCategoriesFile.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (final IOException e) {
+                log.warn("Unable to save possible categories to {}", possibleCategoriesFile, e);
+                tempFile.delete();
+            }
+            return possibleCategories;
         } catch (final IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    // The standard combinators and any special combinators of the model.
+    public static List<Combinator> loadCombinators(final File modelDir) throws IOException {
+        final File binaryRulesFile = new File(modelDir, "binaryRules");
+        final List<Combinator> combinators = new ArrayList<>(Combinator.STANDARD_COMBINATORS);
+        if (binaryRulesFile.exists()) {
+            combinators.addAll(Combinator.loadSpecialCombinators(binaryRulesFile));
+        }
+        return combinators;
+    }
+
+    // Closes the lexical categories under the unary rules and combinators with a semi-naive fixpoint. Each
+    // round only combines the categories found in the previous round, with each other and with the
+    // categories explored before it, so every ordered pair is tried once. The new categories of a round
+    // are combined in parallel, and each thread collects its results into its own list.
     public static Set<Category> getPossibleCategories(final Collection<Category> lexicalCategories,
                                                       final Collection<Combinator> combinators,
                                                       final ListMultimap<Category, UnaryRule> unaryRules,
                                                       final Optional<SeenRules> seenRules) {
-        final Set<Category> agenda = new HashSet<>(lexicalCategories);
         final Set<Category> explored = new HashSet<>();
-        while (!agenda.isEmpty()) {
-            final Iterator<Category> iterator = agenda.iterator();
-            final Category current = iterator.next();
-            iterator.remove();
-            if (explored.add(current)) {
-                Stream.concat(
-                        unaryRules.get(current).stream()
-                                .map(UnaryRule::getCategory),
-                        explored.stream()
-                                .flatMap(other -> Stream.concat(
-                                        seenRules
-                                                .filter(sr -> !sr.isSeen(other, current))
-                                                .map(sr -> Collections.<RuleProduction>emptyList())
-                                                .orElseGet(() -> Combinator.getRules(other, current, combinators))
-                                                .stream(),
-                                        seenRules
-                                                .filter(sr -> !sr.isSeen(current, other))
-                                                .map(sr -> Collections.<RuleProduction>emptyList())
-                                                .orElseGet(() -> Combinator.getRules(current, other, combinators))
-                                                .stream())
-                                        .map(RuleProduction::getCategory)))
-                        .forEach(agenda::add);
+        // Explored categories in the order they were found, which only grows between rounds.
+        final List<Category> previous = new ArrayList<>();
+        List<Category> frontier = new ArrayList<>(new HashSet<>(lexicalCategories));
+        while (!frontier.isEmpty()) {
+            final List<Category> current = frontier;
+            explored.addAll(current);
+            final List<Category> results = current.parallelStream().collect(
+                    ArrayList<Category>::new,
+                    (found, category) -> {
+                        for (final UnaryRule rule : unaryRules.get(category)) {
+                            found.add(rule.getCategory());
+                        }
+                        for (final Category other : previous) {
+                            combine(other, category, combinators, seenRules, found);
+                            combine(category, other, combinators, seenRules, found);
+                        }
+                        for (final Category other : current) {
+                            combine(category, other, combinators, seenRules, found);
+                        }
+                    },
+                    ArrayList::addAll);
+            previous.addAll(current);
+
+            final Set<Category> next = new HashSet<>();
+            for (final Category category : results) {
+                if (!explored.contains(category)) {
+                    next.add(category);
+                }
             }
+            frontier = new ArrayList<>(next);
         }
         return explored;
     }
 
+    private static void combine(final Category left,
+                                final Category right,
+                                final Collection<Combinator> combinators,
+                                final Optional<SeenRules> seenRules,
+                                final List<Category> found) {
+        if (seenRules.isPresent() && !seenRules.get().isSeen(left, right)) {
+            return;
+        }
+        for (final RuleProduction production : Combinator.getRules(left, right, combinators)) {
+            found.add(production.getCategory());
+        }
+    }
+
     public static int parseHash(final SyntaxTreeNode parse) {
         int stepHash = Objects.hash(parse.getStartIndex(), parse.getEndIndex(), parse.getCategory(), parse.getRuleType().ordinal());
         int childrenHash = Arrays.hashCode(parse.getChildren().stream().mapToInt(SyntaxUtil::parseHash).toArray());
@@ -156,4 +232,21 @@ public class SyntaxUtil {
         parseBuilder.setEnd(node.getEndIndex() - 1);
         return parseBuilder;
     }
+
+    // Encodes a whole parse in post-order, so that children always precede their parents.
+    public static ChartProto toChart(SyntaxTreeNode parse) {
+        final ChartProto.Builder chart = ChartProto.newBuilder();
+        addToChart(parse, chart, new IdentityHashMap<>());
+        return chart.build();
+    }
+
+    private static void addToChart(SyntaxTreeNode node, ChartProto.Builder chart, Map<SyntaxTreeNode, Integer> chartIndexes) {
+        node.getChildren().forEach(child -> addToChart(child, chart, chartIndexes));
+        final ParseProto.Builder parse = toProto(node, chartIndexes);
+        if (node instanceof SyntaxTreeNodeLeaf) {
+            parse.setWord(((SyntaxTreeNodeLeaf) node).getWord());
+        }
+        chartIndexes.put(node, chart.getParseCount());
+        chart.addParse(parse);
+    }
 }
@@ -0,0 +1,82 @@
+package edu.uw.neuralccg.grammar;
+
+import junit.framework.TestCase;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import edu.uw.easysrl.syntax.grammar.Category;
+import edu.uw.easysrl.syntax.grammar.Combinator;
+import edu.uw.easysrl.syntax.grammar.Combinator.RuleProduction;
+import edu.uw.easysrl.syntax.grammar.SeenRules;
+
+public class TestBinaryRuleTable extends TestCase {
+    private static final Category CONJ = Category.valueOf("conj");
+
+    private static List<String> describe(final List<RuleProduction> productions) {
+        return productions.stream()
+                .map(production -> production.getCategory() + " " + production.getRuleType())
+                .collect(Collectors.toList());
+    }
+
+    public void testMatchesCombinators() throws IOException {
+        final List<Category> categories = Arrays.asList(
+                Category.valueOf("N"),
+                Category.valueOf("N/N"),
+                Category.valueOf("NP"),
+                Category.valueOf("NP/N"),
+                Category.valueOf("S\\NP"),
+                Category.valueOf("(S\\NP)/NP"),
+                Category.valueOf("(S\\NP)\\(S\\NP)"),
+                Category.valueOf("S[dcl]"),
+                Category.valueOf("S[dcl]\\NP"),
+                Category.valueOf(","),
+                CONJ);
+        // Pairs starting with a conjunction are unseen.
+        final SeenRules seenRules = new SeenRules(null, categories) {
+            @Override
+            public boolean isSeen(final Category left, final Category right) {
+                return !left.equals(CONJ);
+            }
+        };
+        final BinaryRuleTable table = new BinaryRuleTable(categories, Combinator.STANDARD_COMBINATORS, seenRules);
+
+        int numSeen = 0;
+        for (final Category left : categories) {
+            for (final Category right : categories) {
+                if (seenRules.isSeen(left, right)) {
+                    numSeen++;
+                    final List<RuleProduction> expected = Combinator.getRules(left, right, Combinator.STANDARD_COMBINATORS)
+                            .stream()
+                            .filter(production -> NormalFormCustom.isPossible(production.getRuleType()))
+                            .collect(Collectors.toList());
+                    Assert.assertThat(left + " " + right, table.get(left, right), Matchers.notNullValue());
+                    Assert.assertThat(left + " " + right, describe(table.get(left, right)),
+                            Matchers.equalTo(describe(expected)));
+                } else {
+                    Assert.assertThat(left + " " + right, table.get(left, right), Matchers.nullValue());
+                }
+            }
+        }
+        Assert.assertThat(table.size(), Matchers.equalTo(numSeen));
+    }
+
+    public void testMissingCategories() throws IOException {
+        final List<Category> categories = Arrays.asList(Category.valueOf("NP"), Category.valueOf("S\\NP"));
+        final BinaryRuleTable table = new BinaryRuleTable(categories, Combinator.STANDARD_COMBINATORS,
+                new SeenRules(null, categories) {
+                    @Override
+                    public boolean isSeen(final Category left, final Category right) {
+                        return true;
+                    }
+                });
+        Assert.assertThat(table.get(Category.valueOf("NP"), Category.valueOf("S\\NP")), Matchers.notNullValue());
+        Assert.assertThat(table.get(Category.valueOf("N/N"), Category.valueOf("N")), Matchers.nullValue());
+        Assert.assertThat(table.get(Category.valueOf("NP"), Category.valueOf("N")), Matchers.nullValue());
+    }
+}
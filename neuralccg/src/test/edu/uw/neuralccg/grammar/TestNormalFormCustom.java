@@ -0,0 +1,32 @@
+package edu.uw.neuralccg.grammar;
+
+import junit.framework.TestCase;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+
+import edu.uw.easysrl.syntax.grammar.Category;
+import edu.uw.easysrl.syntax.grammar.Combinator.RuleClass;
+import edu.uw.easysrl.syntax.grammar.Combinator.RuleType;
+
+public class TestNormalFormCustom extends TestCase {
+    public void testMatchesUncompiledConstraints() {
+        final NormalFormCustom normalForm = new NormalFormCustom();
+        final Category modifier = Category.valueOf("N/N");
+        for (final RuleClass leftRuleClass : RuleClass.values()) {
+            for (final RuleClass rightRuleClass : RuleClass.values()) {
+                for (final RuleType ruleType : RuleType.values()) {
+                    for (final boolean isPrefixOfSentence : new boolean[]{false, true}) {
+                        for (final Category result : new Category[]{modifier, Category.N}) {
+                            Assert.assertThat(leftRuleClass + " " + rightRuleClass + " " + ruleType + " " + isPrefixOfSentence + " " + result,
+                                    normalForm.isOk(leftRuleClass, rightRuleClass, ruleType,
+                                            modifier, modifier, result, isPrefixOfSentence),
+                                    Matchers.equalTo(NormalFormCustom.isOkUncompiled(leftRuleClass, rightRuleClass, ruleType,
+                                            modifier, modifier, result, isPrefixOfSentence)));
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package edu.uw.neuralccg.util;
+
+import junit.framework.TestCase;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestArtifactCache extends TestCase {
+    public void testSharedUntilReleased() {
+        final AtomicInteger loads = new AtomicInteger(0);
+        final ArtifactCache.Handle<String> first = ArtifactCache.acquire(Arrays.asList("test", 1),
+                () -> "value " + loads.incrementAndGet());
+        final ArtifactCache.Handle<String> second = ArtifactCache.acquire(Arrays.asList("test", 1),
+                () -> "value " + loads.incrementAndGet());
+        Assert.assertThat(first.get(), Matchers.equalTo("value 1"));
+        Assert.assertThat(second.get(), Matchers.sameInstance(first.get()));
+
+        first.close();
+        first.close();
+        Assert.assertThat(second.get(), Matchers.equalTo("value 1"));
+        second.close();
+
+        try (final ArtifactCache.Handle<String> third = ArtifactCache.acquire(Arrays.asList("test", 1),
+                () -> "value " + loads.incrementAndGet())) {
+            Assert.assertThat(third.get(), Matchers.equalTo("value 2"));
+        }
+    }
+}
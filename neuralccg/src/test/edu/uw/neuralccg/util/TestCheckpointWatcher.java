@@ -0,0 +1,45 @@
+package edu.uw.neuralccg.util;
+
+import junit.framework.TestCase;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+public class TestCheckpointWatcher extends TestCase {
+    private static File touch(final File directory, final String name, final long timestamp) throws IOException {
+        directory.mkdirs();
+        final File file = new File(directory, name);
+        Files.write(file.toPath(), new byte[0]);
+        file.setLastModified(timestamp);
+        return file;
+    }
+
+    public void testNewestFirst() throws IOException {
+        final File directory = Files.createTempDirectory("checkpoints").toFile();
+        final File run = new File(directory, "run");
+        final File older = touch(run, "100.pb", 1000000);
+        final File newer = touch(run, "200.pb", 2000000);
+        touch(run, "300.pb.tmp", 3000000);
+        try (final CheckpointWatcher watcher = new CheckpointWatcher(directory, false)) {
+            Assert.assertThat(watcher.take(), Matchers.equalTo(newer));
+            Assert.assertThat(watcher.take(), Matchers.equalTo(older));
+        }
+    }
+
+    public void testSkipSuperseded() throws IOException {
+        final File directory = Files.createTempDirectory("checkpoints").toFile();
+        touch(new File(directory, "first"), "100.pb", 1000000);
+        final File newer = touch(new File(directory, "first"), "200.pb", 3000000);
+        final File other = touch(new File(directory, "second"), "100.pb", 2000000);
+        try (final CheckpointWatcher watcher = new CheckpointWatcher(directory, true)) {
+            Assert.assertThat(watcher.take(), Matchers.equalTo(newer));
+            Assert.assertThat(watcher.take(), Matchers.equalTo(other));
+            final File created = touch(new File(directory, "third"), "100.pb", 4000000);
+            Assert.assertThat(watcher.take(), Matchers.equalTo(created));
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package edu.uw.neuralccg.util;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import junit.framework.TestCase;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import edu.uw.easysrl.dependencies.ResolvedDependency;
+import edu.uw.easysrl.dependencies.SRLFrame;
+import edu.uw.easysrl.main.InputReader.InputWord;
+import edu.uw.easysrl.syntax.grammar.Category;
+import edu.uw.easysrl.syntax.grammar.Preposition;
+import edu.uw.easysrl.syntax.tagger.Tagger.ScoredCategory;
+import edu.uw.neuralccg.CorpusProto.GoldSentenceProto;
+import edu.uw.neuralccg.model.OracleModel.GoldInputToParser;
+
+public class TestCorpusUtil extends TestCase {
+    private static GoldInputToParser createInput() {
+        final Category verb = Category.valueOf("S\\NP");
+        return new GoldInputToParser(
+                ImmutableList.of(new InputWord("John", "NNP", null), new InputWord("left", "VBD", null)),
+                ImmutableList.of(Category.NP, verb),
+                ImmutableList.of(
+                        ImmutableList.of(new ScoredCategory(Category.NP, -0.5), new ScoredCategory(Category.N, -2.0)),
+                        ImmutableList.of(new ScoredCategory(verb, -0.1))),
+                ImmutableSet.of(new ResolvedDependency(1, verb, 1, 0, SRLFrame.NONE, Preposition.NONE)),
+                null);
+    }
+
+    private static void assertSameInput(final GoldInputToParser actual, final GoldInputToParser expected) {
+        Assert.assertThat(actual.getInputWords().stream().map(word -> word.word).collect(Collectors.toList()),
+                Matchers.equalTo(expected.getInputWords().stream().map(word -> word.word).collect(Collectors.toList())));
+        Assert.assertThat(actual.getGoldCategories(), Matchers.equalTo(expected.getGoldCategories()));
+        Assert.assertThat(actual.getGoldDependencies(), Matchers.equalTo(expected.getGoldDependencies()));
+        Assert.assertThat(actual.isAlreadyTagged(), Matchers.equalTo(expected.isAlreadyTagged()));
+    }
+
+    public void testRoundTrip() {
+        final GoldInputToParser input = createInput();
+        final GoldInputToParser decoded = CorpusUtil.toGoldInput(CorpusUtil.toProto(input));
+        assertSameInput(decoded, input);
+        final List<List<ScoredCategory>> supertags = decoded.getInputSupertags();
+        Assert.assertThat(supertags.get(0).get(1).getCategory(), Matchers.equalTo(Category.N));
+        Assert.assertThat(supertags.get(0).get(1).getScore(), Matchers.equalTo(-2.0));
+        Assert.assertThat(decoded.getInputWords().get(0).pos, Matchers.equalTo("NNP"));
+        Assert.assertThat(decoded.getInputWords().get(0).ner, Matchers.nullValue());
+    }
+
+    public void testLegacyFormat() throws InvalidProtocolBufferException {
+        final GoldInputToParser input = createInput();
+        final GoldSentenceProto legacy = GoldSentenceProto.parseFrom(SerializationUtil.serialize(input).toByteArray());
+        assertSameInput(CorpusUtil.toGoldInput(legacy), input);
+    }
+}
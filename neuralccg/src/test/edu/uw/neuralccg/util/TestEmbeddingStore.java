@@ -0,0 +1,77 @@
+package edu.uw.neuralccg.util;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+
+import junit.framework.TestCase;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import edu.uw.neuralccg.TrainProto.WordEmbedding;
+
+public class TestEmbeddingStore extends TestCase {
+    private static WordEmbedding embedding(final String word, final float... values) {
+        final WordEmbedding.Builder embedding = WordEmbedding.newBuilder().setWord(word);
+        for (final float value : values) {
+            embedding.addValue(value);
+        }
+        return embedding.build();
+    }
+
+    public void testWriteAndOpen() {
+        final File directory = Files.createTempDir();
+        directory.deleteOnExit();
+        Assert.assertThat(EmbeddingStore.exists(directory), Matchers.equalTo(false));
+        EmbeddingStore.write(directory, ImmutableList.of(
+                embedding("the", 0.5f, -1.0f, 2.0f),
+                embedding("naïve", 3.0f, 0.0f, -0.25f)).iterator());
+        Assert.assertThat(EmbeddingStore.exists(directory), Matchers.equalTo(true));
+
+        final EmbeddingStore store = EmbeddingStore.open(directory);
+        Assert.assertThat(store.getWords(), Matchers.contains("the", "naïve"));
+        Assert.assertThat(store.getDimension(), Matchers.equalTo(3));
+        final float[] row = new float[store.getDimension()];
+        store.getRow(1, row);
+        Assert.assertThat(row[0], Matchers.equalTo(3.0f));
+        Assert.assertThat(row[2], Matchers.equalTo(-0.25f));
+        Assert.assertThat(store.getHotWords(ImmutableSet.of("naïve"), 0), Matchers.contains("naïve"));
+        Assert.assertThat(store.getHotWords(ImmutableSet.of(), 1), Matchers.contains("the"));
+        for (final File file : directory.listFiles()) {
+            file.deleteOnExit();
+        }
+    }
+
+    public void testConvertsChangedSource() throws IOException {
+        final File directory = Files.createTempDir();
+        directory.deleteOnExit();
+        final File source = File.createTempFile("test-embeddings-", ".raw");
+        source.deleteOnExit();
+        Files.write("the 1.0\n", source, StandardCharsets.UTF_8);
+
+        final AtomicInteger conversions = new AtomicInteger(0);
+        final Supplier<Stream<WordEmbedding>> embeddings = () -> {
+            conversions.incrementAndGet();
+            return Stream.of(embedding("the", 1.0f), embedding("cat", 2.0f));
+        };
+        EmbeddingStore.openOrConvert(directory, source, embeddings);
+        EmbeddingStore.openOrConvert(directory, source, embeddings);
+        Assert.assertThat(conversions.get(), Matchers.equalTo(1));
+
+        Files.append("cat 2.0\n", source, StandardCharsets.UTF_8);
+        final EmbeddingStore store = EmbeddingStore.openOrConvert(directory, source, embeddings);
+        Assert.assertThat(conversions.get(), Matchers.equalTo(2));
+        Assert.assertThat(store.getWords(), Matchers.contains("the", "cat"));
+        for (final File file : directory.listFiles()) {
+            file.deleteOnExit();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package edu.uw.neuralccg.util;
+
+import junit.framework.TestCase;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class TestLogLinearHistogram extends TestCase {
+    public void testPercentiles() {
+        final Random random = new Random(0);
+        final long[] values = new long[10000];
+        final LogLinearHistogram histogram = new LogLinearHistogram();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.exp(random.nextDouble() * 20);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (final double percentile : new double[]{50, 90, 99}) {
+            final long exact = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            Assert.assertThat((double) histogram.getPercentile(percentile), Matchers.greaterThanOrEqualTo((double) exact));
+            Assert.assertThat((double) histogram.getPercentile(percentile), Matchers.lessThanOrEqualTo(exact * 1.04 + 1));
+        }
+        Assert.assertThat(histogram.getMax(), Matchers.equalTo(values[values.length - 1]));
+    }
+
+    public void testMergeThroughProto() {
+        final LogLinearHistogram first = new LogLinearHistogram();
+        final LogLinearHistogram second = new LogLinearHistogram();
+        final LogLinearHistogram all = new LogLinearHistogram();
+        for (long value = 0; value < 1000; value++) {
+            (value % 2 == 0 ? first : second).record(value * value);
+            all.record(value * value);
+        }
+        final LogLinearHistogram merged = LogLinearHistogram.fromProto(first.toProto());
+        merged.merge(LogLinearHistogram.fromProto(second.toProto()));
+        Assert.assertThat(merged.toProto(), Matchers.equalTo(all.toProto()));
+    }
+}
@@ -0,0 +1,35 @@
+package edu.uw.neuralccg.util;
+
+import junit.framework.TestCase;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+public class TestLongHashSet extends TestCase {
+    public void testMatchesHashSet() {
+        final Random random = new Random(0);
+        final LongHashSet set = new LongHashSet();
+        final Set<Long> expected = new HashSet<>();
+        for (int i = 0; i < 10000; i++) {
+            final long value = random.nextInt(5000) - 2500L;
+            Assert.assertThat(set.add(value), Matchers.equalTo(expected.add(value)));
+        }
+        Assert.assertThat(set.size(), Matchers.equalTo(expected.size()));
+        for (long value = -3000; value < 3000; value++) {
+            Assert.assertThat(set.contains(value), Matchers.equalTo(expected.contains(value)));
+        }
+    }
+
+    public void testSentinel() {
+        final LongHashSet set = new LongHashSet();
+        Assert.assertThat(set.contains(Long.MIN_VALUE), Matchers.equalTo(false));
+        Assert.assertThat(set.add(Long.MIN_VALUE), Matchers.equalTo(true));
+        Assert.assertThat(set.contains(Long.MIN_VALUE), Matchers.equalTo(true));
+        Assert.assertThat(set.contains(0L), Matchers.equalTo(false));
+        Assert.assertThat(set.size(), Matchers.equalTo(1));
+    }
+}
@@ -0,0 +1,36 @@
+package edu.uw.neuralccg.util;
+
+import com.github.kentonl.pipegraph.util.LambdaUtil.SideEffect;
+
+import junit.framework.TestCase;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class TestRandomBlockingQueue extends TestCase {
+    private static List<Integer> shuffle(int seed) {
+        final RandomBlockingQueue<Integer> queue = new RandomBlockingQueue<>(10, 10, new Random(seed));
+        final SideEffect stop = queue.offerOnce(() -> IntStream.range(0, 1000).boxed());
+        try {
+            return queue.pollStream().collect(Collectors.toList());
+        } finally {
+            stop.perform();
+        }
+    }
+
+    public void testOfferOnce() {
+        final List<Integer> shuffled = shuffle(0);
+        Assert.assertThat(shuffled.size(), Matchers.equalTo(1000));
+        Assert.assertThat(shuffled.stream().sorted().collect(Collectors.toList()),
+                Matchers.equalTo(IntStream.range(0, 1000).boxed().collect(Collectors.toList())));
+    }
+
+    public void testDeterministic() {
+        Assert.assertThat(shuffle(0), Matchers.equalTo(shuffle(0)));
+    }
+}
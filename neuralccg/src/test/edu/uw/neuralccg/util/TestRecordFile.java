@@ -0,0 +1,66 @@
+package edu.uw.neuralccg.util;
+
+import com.google.protobuf.ByteString;
+
+import junit.framework.TestCase;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import edu.uw.neuralccg.TableProto.Row;
+
+public class TestRecordFile extends TestCase {
+    private static Row row(final int i) {
+        return Row.newBuilder().addCell("row " + i).addCell(Integer.toString(i * i)).build();
+    }
+
+    public void testRandomAccess() throws IOException {
+        final File file = File.createTempFile("test-records-", ".records");
+        file.deleteOnExit();
+        final int count = RecordFile.write(file, IntStream.range(0, 100).mapToObj(TestRecordFile::row));
+        Assert.assertThat(count, Matchers.equalTo(100));
+        Assert.assertThat(RecordFile.count(file), Matchers.equalTo(100));
+        try (final RecordFile records = RecordFile.open(file)) {
+            Assert.assertThat(records.get(42, Row.getDefaultInstance().getParserForType()), Matchers.equalTo(row(42)));
+            Assert.assertThat(records.get(0, Row.getDefaultInstance().getParserForType()), Matchers.equalTo(row(0)));
+            Assert.assertThat(records.get(99, Row.getDefaultInstance().getParserForType()), Matchers.equalTo(row(99)));
+
+            final List<ByteString> slice = records.slice(10, 13)
+                    .map(ByteString::copyFrom)
+                    .collect(Collectors.toList());
+            Assert.assertThat(slice, Matchers.contains(row(10).toByteString(), row(11).toByteString(), row(12).toByteString()));
+        }
+    }
+
+    public void testPaddedSegments() throws IOException {
+        final File file = File.createTempFile("test-records-", ".records");
+        file.deleteOnExit();
+        // Segments only hold a few rows, so many records are followed by padding.
+        final int count = RecordFile.write(file, IntStream.range(0, 100).mapToObj(TestRecordFile::row).iterator(), 40);
+        Assert.assertThat(count, Matchers.equalTo(100));
+        try (final RecordFile records = RecordFile.open(file)) {
+            Assert.assertThat(records.stream(Row.getDefaultInstance().getParserForType()).collect(Collectors.toList()),
+                    Matchers.equalTo(IntStream.range(0, 100).mapToObj(TestRecordFile::row).collect(Collectors.toList())));
+            Assert.assertThat(records.slice(0, 100).map(ByteString::copyFrom).collect(Collectors.toList()),
+                    Matchers.equalTo(IntStream.range(0, 100)
+                            .mapToObj(i -> row(i).toByteString())
+                            .collect(Collectors.toList())));
+        }
+    }
+
+    public void testEmpty() throws IOException {
+        final File file = File.createTempFile("test-records-", ".records");
+        file.deleteOnExit();
+        RecordFile.write(file, IntStream.range(0, 0).mapToObj(TestRecordFile::row));
+        try (final RecordFile records = RecordFile.open(file)) {
+            Assert.assertThat(records.size(), Matchers.equalTo(0));
+            Assert.assertThat(records.stream(Row.getDefaultInstance().getParserForType()).count(), Matchers.equalTo(0L));
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package edu.uw.neuralccg.util;
+
+import junit.framework.TestCase;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+public class TestRetrievalStatistics extends TestCase {
+    public void testEncodedMatchesSets() {
+        final Random random = new Random(0);
+        for (int i = 0; i < 100; i++) {
+            final List<Long> gold = LongStream.generate(() -> random.nextInt(50)).limit(random.nextInt(100)).boxed().collect(Collectors.toList());
+            final List<Long> predicted = LongStream.generate(() -> random.nextInt(50)).limit(random.nextInt(100)).boxed().collect(Collectors.toList());
+            final RetrievalStatistics expected = new RetrievalStatistics().update(gold.stream(), predicted.stream());
+            final RetrievalStatistics actual = new RetrievalStatistics().update(gold.stream(), predicted.stream(), Long::longValue);
+            Assert.assertThat(actual.getCorrect(), Matchers.equalTo(expected.getCorrect()));
+            Assert.assertThat(actual.getGold(), Matchers.equalTo(expected.getGold()));
+            Assert.assertThat(actual.getPredicted(), Matchers.equalTo(expected.getPredicted()));
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package edu.uw.neuralccg.util;
+
+import junit.framework.TestCase;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import edu.uw.easysrl.syntax.grammar.Category;
+import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode.SyntaxTreeNodeLeaf;
+import edu.uw.easysrl.syntax.model.AgendaItem;
+import edu.uw.easysrl.syntax.parser.ChartCell;
+
+public class TestSortedNbestChartCell extends TestCase {
+    private static final double WIDE_BEAM = 1e-10;
+
+    private static AgendaItem item(final double cost) {
+        return new AgendaItem(new SyntaxTreeNodeLeaf("word", "NN", "O", Category.N, 0, true), cost, 0, 0, 1, true);
+    }
+
+    private static List<Double> costs(final ChartCell cell) {
+        final List<Double> costs = new ArrayList<>();
+        for (final AgendaItem entry : cell.getEntries()) {
+            costs.add(entry.getCost());
+        }
+        return costs;
+    }
+
+    public void testOrdersByDecreasingCost() {
+        final ChartCell cell = new CellUtil.SortedNbestChartCell(10, WIDE_BEAM);
+        for (final double cost : new double[]{-3, -1, -4, -2}) {
+            Assert.assertThat(cell.add("key", item(cost)), Matchers.equalTo(true));
+        }
+        Assert.assertThat(costs(cell), Matchers.equalTo(Arrays.asList(-1.0, -2.0, -3.0, -4.0)));
+        Assert.assertThat(cell.size(), Matchers.equalTo(4));
+        Assert.assertThat(cell.getEntries().size(), Matchers.equalTo(4));
+    }
+
+    public void testLimitsEntriesPerKey() {
+        // Like NbestChartCell, each key keeps nbest + 1 entries.
+        final ChartCell cell = new CellUtil.SortedNbestChartCell(1, WIDE_BEAM);
+        for (final double cost : new double[]{-3, -1, -4, -2}) {
+            cell.add("a", item(cost));
+        }
+        Assert.assertThat(cell.add("a", item(-5)), Matchers.equalTo(false));
+        cell.add("b", item(-6));
+        final List<Double> costs = costs(cell);
+        Collections.sort(costs);
+        Assert.assertThat(costs, Matchers.equalTo(Arrays.asList(-6.0, -2.0, -1.0)));
+        Assert.assertThat(cell.size(), Matchers.equalTo(3));
+    }
+
+    public void testKeepsAsManyAsNbestChartCell() {
+        for (final int nbest : new int[]{0, 1, 2, 5}) {
+            final ChartCell sorted = new CellUtil.SortedNbestChartCell(nbest, WIDE_BEAM);
+            final ChartCell baseline = new CellUtil.NbestChartCell(nbest, WIDE_BEAM);
+            for (int i = 0; i < 10; i++) {
+                Assert.assertThat(sorted.add("key", item(-i)), Matchers.equalTo(baseline.add("key", item(-i))));
+            }
+            Assert.assertThat(sorted.size(), Matchers.equalTo(baseline.size()));
+        }
+    }
+
+    public void testDropsEntriesOutsideBeam() {
+        final ChartCell cell = new CellUtil.SortedNbestChartCell(10, Math.exp(-1.5));
+        cell.add("key", item(-3));
+        cell.add("key", item(-4));
+        Assert.assertThat(cell.add("key", item(-5)), Matchers.equalTo(false));
+        cell.add("key", item(-2));
+        Assert.assertThat(costs(cell), Matchers.equalTo(Arrays.asList(-2.0, -3.0)));
+        Assert.assertThat(cell.size(), Matchers.equalTo(2));
+    }
+
+    public void testIteratesAllKeys() {
+        final ChartCell cell = new CellUtil.SortedNbestChartCell(3, WIDE_BEAM);
+        for (int key = 0; key < 5; key++) {
+            for (int i = 0; i < key; i++) {
+                cell.add(key, item(-key - i));
+            }
+        }
+        Assert.assertThat(cell.size(), Matchers.equalTo(1 + 2 + 3 + 4));
+        Assert.assertThat(costs(cell).size(), Matchers.equalTo(cell.size()));
+        Assert.assertThat(cell.getEntries().iterator().hasNext(), Matchers.equalTo(true));
+        Assert.assertThat(new CellUtil.SortedNbestChartCell(3, WIDE_BEAM).getEntries().iterator().hasNext(),
+                Matchers.equalTo(false));
+    }
+}
@@ -0,0 +1,99 @@
+package edu.uw.neuralccg.util;
+
+import junit.framework.TestCase;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.uw.easysrl.syntax.grammar.Category;
+import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode.SyntaxTreeNodeLeaf;
+import edu.uw.easysrl.syntax.model.AgendaItem;
+import edu.uw.easysrl.syntax.parser.ChartCell;
+
+public class TestTopKChartCell extends TestCase {
+    private static AgendaItem item(final double cost) {
+        return new AgendaItem(new SyntaxTreeNodeLeaf("word", "NN", "O", Category.N, 0, true), cost, 0, 0, 1, true);
+    }
+
+    private static List<Double> sortedCosts(final ChartCell cell) {
+        final List<Double> costs = new ArrayList<>();
+        for (final AgendaItem entry : cell.getEntries()) {
+            costs.add(entry.getCost());
+        }
+        Collections.sort(costs);
+        return costs;
+    }
+
+    public void testEvictsWorstEntry() {
+        final AtomicInteger pruned = new AtomicInteger(0);
+        final ChartCell cell = new CellUtil.TopKChartCell(2, pruned::incrementAndGet);
+        Assert.assertThat(cell.add("a", item(-1)), Matchers.equalTo(true));
+        Assert.assertThat(cell.add("b", item(-3)), Matchers.equalTo(true));
+        Assert.assertThat(pruned.get(), Matchers.equalTo(0));
+
+        Assert.assertThat(cell.add("c", item(-2)), Matchers.equalTo(true));
+        Assert.assertThat(sortedCosts(cell), Matchers.contains(-2.0, -1.0));
+        Assert.assertThat(pruned.get(), Matchers.equalTo(1));
+
+        Assert.assertThat(cell.add("d", item(-5)), Matchers.equalTo(false));
+        Assert.assertThat(sortedCosts(cell), Matchers.contains(-2.0, -1.0));
+        Assert.assertThat(pruned.get(), Matchers.equalTo(2));
+        Assert.assertThat(cell.size(), Matchers.equalTo(2));
+
+        // The key of an evicted entry can come back.
+        Assert.assertThat(cell.add("b", item(0)), Matchers.equalTo(true));
+        Assert.assertThat(sortedCosts(cell), Matchers.contains(-1.0, 0.0));
+    }
+
+    public void testTiesKeepEarlierEntries() {
+        final AtomicInteger pruned = new AtomicInteger(0);
+        final ChartCell cell = new CellUtil.TopKChartCell(2, pruned::incrementAndGet);
+        final AgendaItem first = item(-1);
+        cell.add("a", first);
+        cell.add("b", item(-1));
+        Assert.assertThat(cell.add("c", item(-1)), Matchers.equalTo(false));
+        Assert.assertThat(pruned.get(), Matchers.equalTo(1));
+
+        // An entry with the same key and cost does not replace the existing one, and is not pruning.
+        Assert.assertThat(cell.add("a", item(-1)), Matchers.equalTo(false));
+        Assert.assertThat(cell.getEntries(), Matchers.hasItem(Matchers.sameInstance(first)));
+        Assert.assertThat(pruned.get(), Matchers.equalTo(1));
+    }
+
+    public void testReplacesEntryWithSameKey() {
+        final ChartCell cell = new CellUtil.TopKChartCell(2, () -> { });
+        cell.add("a", item(-3));
+        cell.add("b", item(-2));
+        Assert.assertThat(cell.add("a", item(-4)), Matchers.equalTo(false));
+        Assert.assertThat(cell.add("a", item(-1)), Matchers.equalTo(true));
+        Assert.assertThat(sortedCosts(cell), Matchers.contains(-2.0, -1.0));
+        Assert.assertThat(cell.size(), Matchers.equalTo(2));
+    }
+
+    public void testKeepsTopK() {
+        final Random random = new Random(0);
+        final ChartCell cell = new CellUtil.TopKChartCell(8, () -> { });
+        final List<Double> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            final double cost = -random.nextInt(100000);
+            cell.add(i, item(cost));
+            expected.add(cost);
+        }
+        Collections.sort(expected);
+        Assert.assertThat(sortedCosts(cell), Matchers.equalTo(expected.subList(expected.size() - 8, expected.size())));
+    }
+
+    public void testEmptyBeam() {
+        final AtomicInteger pruned = new AtomicInteger(0);
+        final ChartCell cell = new CellUtil.TopKChartCell(0, pruned::incrementAndGet);
+        Assert.assertThat(cell.add("a", item(0)), Matchers.equalTo(false));
+        Assert.assertThat(cell.size(), Matchers.equalTo(0));
+        Assert.assertThat(pruned.get(), Matchers.equalTo(1));
+    }
+}
@@ -0,0 +1,63 @@
+#ifndef NEURALCCG_UTIL_MAPPED_FILE_H_
+#define NEURALCCG_UTIL_MAPPED_FILE_H_
+
+#include <fcntl.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
+#include <unistd.h>
+
+#include <stdexcept>
+#include <string>
+
+namespace neuralccg {
+
+// Read-only memory mapping of a whole file, which is unmapped on destruction.
+class MappedFile {
+ public:
+  explicit MappedFile(const std::string &path) : data(nullptr), size(0) {
+    int fd = open(path.c_str(), O_RDONLY);
+    if (fd < 0) {
+      throw std::runtime_error("Unable to open " + path);
+    }
+    struct stat file_stat;
+    if (fstat(fd, &file_stat) != 0) {
+      close(fd);
+      throw std::runtime_error("Unable to stat " + path);
+    }
+    size = file_stat.st_size;
+    if (size > 0) {
+      void *mapping = mmap(nullptr, size, PROT_READ, MAP_PRIVATE, fd, 0);
+      if (mapping == MAP_FAILED) {
+        close(fd);
+        throw std::runtime_error("Unable to map " + path);
+      }
+      data = static_cast<const char*>(mapping);
+    }
+    close(fd);
+  }
+
+  ~MappedFile() {
+    if (data != nullptr) {
+      munmap(const_cast<char*>(data), size);
+    }
+  }
+
+  MappedFile(const MappedFile&) = delete;
+  MappedFile &operator=(const MappedFile&) = delete;
+
+  const char *Data() const {
+    return data;
+  }
+
+  size_t Size() const {
+    return size;
+  }
+
+ private:
+  const char *data;
+  size_t size;
+};
+
+}
+
+#endif